@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures consuming outcomes from a single router shared by multiple
+ * threads, each providing its own input per invocation.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentConsumeBenchmark {
+
+    @State(Scope.Thread)
+    public static class ThreadInput {
+        final PhaseGraphs.Input input = new PhaseGraphs.Input(1);
+    }
+
+    @Param({PhaseGraphs.LINEAR, PhaseGraphs.FAN_IN, PhaseGraphs.ALTERNATIVES})
+    public String graph;
+
+    @Param({"10", "50"})
+    public int size;
+
+    private PhaseRouter router;
+    private Class<Object> target;
+
+    @Setup
+    public void setup() throws PhaseRouterException {
+        router = PhaseGraphs.factory(graph, size).build();
+        target = PhaseGraphs.target(graph, size);
+    }
+
+    @Benchmark
+    public Object consume(ThreadInput input) throws PhaseRouterException {
+        return router.consume(target, input.input);
+    }
+}
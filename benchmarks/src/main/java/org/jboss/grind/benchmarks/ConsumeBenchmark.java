@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.PhasePlan;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving the phases producing an outcome and
+ * consuming the outcome from a built router.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumeBenchmark {
+
+    @Param({PhaseGraphs.LINEAR, PhaseGraphs.FAN_IN, PhaseGraphs.ALTERNATIVES})
+    public String graph;
+
+    @Param({"10", "50", "200"})
+    public int size;
+
+    private PhaseRouterFactory factory;
+    private PhaseRouter router;
+    private PhaseRouter routerWoInput;
+    private Class<Object> target;
+    private PhaseGraphs.Input input;
+
+    @Setup
+    public void setup() throws PhaseRouterException {
+        factory = PhaseGraphs.factory(graph, size);
+        target = PhaseGraphs.target(graph, size);
+        input = new PhaseGraphs.Input(1);
+        router = factory.build();
+        router.provide(input);
+        // resolve the plan before the measurements
+        router.consume(target);
+        routerWoInput = factory.build();
+        routerWoInput.consume(target, input);
+    }
+
+    /**
+     * Resolves the plan on a newly built router, which has not
+     * resolved any plans yet.
+     */
+    @Benchmark
+    public PhasePlan resolve() throws PhaseRouterException {
+        final PhaseRouter router = factory.build();
+        router.provide(input);
+        return router.getPlan(target);
+    }
+
+    /**
+     * Consumes the outcome using the values provided to the router.
+     */
+    @Benchmark
+    public Object consume() throws PhaseRouterException {
+        return router.consume(target);
+    }
+
+    /**
+     * Consumes the outcome providing the input for the invocation only.
+     */
+    @Benchmark
+    public Object consumeWithInput() throws PhaseRouterException {
+        return routerWoInput.consume(target, input);
+    }
+}
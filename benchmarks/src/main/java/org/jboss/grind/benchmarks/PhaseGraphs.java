@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+
+/**
+ * Phase handler graphs of configurable size used by the benchmarks.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class PhaseGraphs {
+
+    /**
+     * Externally provided input of the graphs
+     */
+    public static final class Input {
+        final int value;
+
+        public Input(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Handler consuming outcomes of the specified types and providing
+     * the sum of their values as an outcome of the specified type.
+     */
+    static class SumPhase implements PhaseHandler {
+
+        private final Class<Object> provided;
+        private final List<Class<?>> consumed;
+
+        SumPhase(Class<Object> provided, Class<?>... consumed) {
+            this.provided = provided;
+            this.consumed = Arrays.asList(consumed);
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            for(Class<?> type : consumed) {
+                registration.consumes(type);
+            }
+            registration.provides(provided);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            int sum = 1;
+            for(Class<?> type : consumed) {
+                final Object value = ctx.consume(type);
+                sum += value instanceof Input ? ((Input) value).value : (Integer) value;
+            }
+            ctx.provide(provided, sum);
+        }
+    }
+
+    public static final String LINEAR = "linear";
+    public static final String FAN_IN = "fanIn";
+    public static final String ALTERNATIVES = "alternatives";
+    public static final String LAYERED = "layered";
+
+    /** Component types of the array classes used as outcome types */
+    private static final Class<?>[] COMPONENT_TYPES = new Class<?>[] {
+        Input.class, Object.class, String.class, Integer.class, Long.class,
+        Short.class, Byte.class, Character.class, Boolean.class, Double.class,
+        Float.class, Number.class, Class.class, Runnable.class, Thread.class,
+        StringBuilder.class, Throwable.class, Exception.class, Error.class, Void.class
+    };
+
+    /** The maximum number of array dimensions supported by the JVM */
+    private static final int MAX_DIMENSIONS = 255;
+
+    /** The number of distinct outcome types available to the graphs */
+    public static final int MAX_TYPES = COMPONENT_TYPES.length * MAX_DIMENSIONS;
+
+    /**
+     * Returns a distinct outcome type for every index. The types are array
+     * classes of increasing dimensions of a few component types, which allows
+     * creating graphs of any size without declaring a class per outcome type.
+     *
+     * @param i  type index, from 0 to {@link #MAX_TYPES} exclusive
+     * @return  outcome type
+     */
+    @SuppressWarnings("unchecked")
+    public static Class<Object> type(int i) {
+        if(i < 0 || i >= MAX_TYPES) {
+            throw new IllegalArgumentException("Type index " + i + " is out of range");
+        }
+        final StringBuilder buf = new StringBuilder();
+        for(int j = 0; j <= i % MAX_DIMENSIONS; ++j) {
+            buf.append('[');
+        }
+        buf.append("L").append(COMPONENT_TYPES[i / MAX_DIMENSIONS].getName()).append(';');
+        try {
+            return (Class<Object>) Class.forName(buf.toString());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a factory with the handlers of the graph.
+     *
+     * @param graph  graph name
+     * @param size  number of phases in the graph
+     * @return  factory with the handlers of the graph added
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public static PhaseRouterFactory factory(String graph, int size) throws PhaseRouterException {
+        switch(graph) {
+            case LINEAR:
+                return linear(size);
+            case FAN_IN:
+                return fanIn(size);
+            case ALTERNATIVES:
+                return alternatives(size);
+            case LAYERED:
+                return layered(size);
+            default:
+                throw new IllegalArgumentException("Unknown graph " + graph);
+        }
+    }
+
+    /**
+     * Outcome type to consume from the graph.
+     *
+     * @param graph  graph name
+     * @param size  number of phases in the graph
+     * @return  outcome type
+     */
+    public static Class<Object> target(String graph, int size) {
+        switch(graph) {
+            case LINEAR:
+                return type(size - 1);
+            case FAN_IN:
+                return type(size - 1);
+            case ALTERNATIVES:
+                return type(0);
+            case LAYERED:
+                return type(size / 3 - 1);
+            default:
+                throw new IllegalArgumentException("Unknown graph " + graph);
+        }
+    }
+
+    /**
+     * Chain of phases, each consuming the outcome of the previous one,
+     * the first one consuming the input. The phases are added starting
+     * from the one providing the target outcome.
+     */
+    static PhaseRouterFactory linear(int size) throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        for(int i = size - 1; i > 0; --i) {
+            factory.addPhase(new SumPhase(type(i), type(i - 1)));
+        }
+        factory.addPhase(new SumPhase(type(0), Input.class));
+        return factory;
+    }
+
+    /**
+     * Independent phases consuming the input, whose outcomes are all
+     * consumed by the phase providing the target outcome.
+     */
+    static PhaseRouterFactory fanIn(int size) throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        final Class<?>[] consumed = new Class<?>[size - 1];
+        for(int i = 0; i < consumed.length; ++i) {
+            consumed[i] = type(i);
+            factory.addPhase(new SumPhase(type(i), Input.class));
+        }
+        factory.addPhase(new SumPhase(type(size - 1), consumed));
+        return factory;
+    }
+
+    /**
+     * Every outcome type has two alternative providers: the first one
+     * depends on the outcome of the previous type, forming cycles, and
+     * the second one on the outcome of the next type. Only the last type
+     * can be provided without consuming another outcome, so resolving
+     * the target outcome requires exploring the alternatives.
+     */
+    static PhaseRouterFactory alternatives(int size) throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        // type that has no provider
+        final Class<Object> missing = type(size);
+        for(int i = 0; i < size / 2; ++i) {
+            factory.addPhase(new SumPhase(type(i), i == 0 ? missing : type(i - 1)));
+            if(i < size / 2 - 1) {
+                factory.addPhase(new SumPhase(type(i), type(i + 1)));
+            } else {
+                factory.addPhase(new SumPhase(type(i), Input.class));
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Every outcome type has three alternative providers: the first one
+     * depends on an outcome type that has no provider, the second one
+     * on the outcome of the next type, forming cycles, and the third one
+     * on the outcome of the previous type, the first type being provided
+     * from the input. Each of the alternatives that can not contribute to
+     * the plan is registered before the one that can.
+     */
+    static PhaseRouterFactory layered(int size) throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        final int types = size / 3;
+        // type that has no provider
+        final Class<Object> missing = type(types);
+        for(int i = 0; i < types; ++i) {
+            factory.addPhase(new SumPhase(type(i), missing));
+            if(i < types - 1) {
+                factory.addPhase(new SumPhase(type(i), type(i + 1)));
+            }
+            factory.addPhase(new SumPhase(type(i), i == 0 ? Input.class : type(i - 1)));
+        }
+        return factory;
+    }
+}
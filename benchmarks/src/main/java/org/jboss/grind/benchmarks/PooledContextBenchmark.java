@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures consuming an outcome from a warmed-up router with and without
+ * pooled processing contexts. Meant to be run with the GC profiler,
+ * i.e. {@code -prof gc}, whose {@code gc.alloc.rate.norm} is the number
+ * of bytes allocated per invocation. The sums provided by the phases of
+ * the graphs stay within the range of the cached {@link Integer} values,
+ * so with pooled contexts the router itself is expected to allocate nothing.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PooledContextBenchmark {
+
+    @Param({PhaseGraphs.LINEAR, PhaseGraphs.FAN_IN})
+    public String graph;
+
+    @Param({"10", "50"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private PhaseRouter router;
+    private PhaseRouter routerWoInput;
+    private Class<Object> target;
+    /** Reused, so that the invocations don't allocate the varargs array */
+    private Object[] input;
+
+    @Setup
+    public void setup() throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseGraphs.factory(graph, size).setPooledContexts(pooled);
+        target = PhaseGraphs.target(graph, size);
+        input = new Object[] {new PhaseGraphs.Input(1)};
+        router = factory.build();
+        router.provide(input[0]);
+        router.consume(target);
+        routerWoInput = factory.build();
+        routerWoInput.consume(target, input);
+    }
+
+    /**
+     * Consumes the outcome using the values provided to the router.
+     */
+    @Benchmark
+    public Object consume() throws PhaseRouterException {
+        return router.consume(target);
+    }
+
+    /**
+     * Consumes the outcome providing the input for the invocation only.
+     */
+    @Benchmark
+    public Object consumeWithInput() throws PhaseRouterException {
+        return routerWoInput.consume(target, input);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.PhasePlan;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving a plan on a newly built router for graphs
+ * of thousands of handlers with many alternative providers.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverScalingBenchmark {
+
+    @Param({PhaseGraphs.LAYERED, PhaseGraphs.LINEAR})
+    public String graph;
+
+    @Param({"300", "1500", "3000"})
+    public int size;
+
+    private PhaseRouterFactory factory;
+    private Class<Object> target;
+
+    @Setup
+    public void setup() throws PhaseRouterException {
+        factory = PhaseGraphs.factory(graph, size);
+        target = PhaseGraphs.target(graph, size);
+    }
+
+    @Benchmark
+    public PhasePlan resolve() throws PhaseRouterException {
+        return factory.build().getPlan(target, PhaseGraphs.Input.class);
+    }
+}
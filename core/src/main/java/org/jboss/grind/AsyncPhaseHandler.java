@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Phase handler that processes the phase asynchronously, e.g. performing
+ * I/O without blocking the thread that invoked it.
+ *
+ * When the outcome is consumed with {@link PhaseRouter#consumeAsync(Class)}
+ * the phases that depend on this one are processed once the stage returned
+ * by {@link #processAsync(PhaseProcessingContext)} completes.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface AsyncPhaseHandler extends PhaseHandler {
+
+    /**
+     * Invoked by the router to process the phase asynchronously.
+     * The outcomes of the phase have to be provided before
+     * the returned stage completes.
+     *
+     * @param ctx  phase processing context
+     * @return  stage completing when the phase has been processed
+     * @throws PhaseRouterException  in case of a failure
+     */
+    CompletionStage<Void> processAsync(PhaseProcessingContext ctx) throws PhaseRouterException;
+
+    /**
+     * Processes the phase blocking until the stage returned by
+     * {@link #processAsync(PhaseProcessingContext)} completes.
+     * Runtime exceptions and errors failing the stage are rethrown
+     * as they are, the same way the router rethrows them when it
+     * processes the phases using an executor, and a cancelled stage
+     * fails with a {@link PhaseRouterException}.
+     */
+    @Override
+    default void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+        try {
+            processAsync(ctx).toCompletableFuture().join();
+        } catch(CompletionException | CancellationException e) {
+            throw PhaseRouter.propagate(e);
+        }
+    }
+}
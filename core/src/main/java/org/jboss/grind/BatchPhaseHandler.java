@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Phase handler that can process the phase for multiple
+ * invocations at once, which allows it to amortize the I/O or
+ * computation across the invocations.
+ *
+ * When outcomes are consumed with {@link PhaseRouter#consumeBatch(Class, List)}
+ * the router invokes {@link #processBatch(List)} once per phase with the
+ * contexts of all the invocations in the batch.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface BatchPhaseHandler extends PhaseHandler {
+
+    /**
+     * Invoked by the router to process the phase for multiple invocations.
+     * The handler is expected to provide its outcomes to every context.
+     *
+     * @param contexts  processing contexts of the invocations
+     * @throws PhaseRouterException  in case of a failure
+     */
+    void processBatch(List<PhaseProcessingContext> contexts) throws PhaseRouterException;
+
+    /**
+     * Processes the phase for a single invocation as a batch of one.
+     */
+    @Override
+    default void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+        processBatch(Collections.singletonList(ctx));
+    }
+}
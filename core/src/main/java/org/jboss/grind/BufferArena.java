@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers allocated by the phases processed for a single consume
+ * invocation (see {@link PhaseProcessingContext#allocate(int)}).
+ *
+ * <p>Buffers are sliced from direct chunks taken from a pool shared
+ * by the consume invocations of a router. Once the invocation has completed,
+ * the chunks are returned to the pool to be reused by the following invocations,
+ * so neither the heap nor the native memory churns with the amount of binary
+ * data passed between the phases. Buffers larger than a chunk are allocated
+ * separately and are not pooled.
+ *
+ * <p>An arena is not thread-safe, the context owning it synchronizes
+ * the allocations.
+ *
+ * @author Alexey Loubyansky
+ */
+final class BufferArena {
+
+    /** Alignment of the allocated buffers within a chunk */
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * Direct chunks shared by the arenas of a router
+     */
+    static final class Pool {
+
+        private final int chunkSize;
+        private final int maxChunks;
+        private final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * @param chunkSize  size of a chunk in bytes
+         * @param maxChunks  maximum number of the chunks kept in the pool
+         */
+        Pool(int chunkSize, int maxChunks) {
+            this.chunkSize = chunkSize;
+            this.maxChunks = maxChunks;
+        }
+
+        private ByteBuffer take() {
+            final ByteBuffer chunk = chunks.poll();
+            if(chunk == null) {
+                return ByteBuffer.allocateDirect(chunkSize);
+            }
+            size.decrementAndGet();
+            return chunk;
+        }
+
+        private void recycle(ByteBuffer chunk) {
+            if(size.incrementAndGet() > maxChunks) {
+                size.decrementAndGet();
+                return;
+            }
+            chunk.clear();
+            chunks.add(chunk);
+        }
+
+        /**
+         * Number of the chunks currently in the pool
+         */
+        int size() {
+            return size.get();
+        }
+    }
+
+    /**
+     * Binary outcome provided with {@link PhaseProcessingContext#provideBuffer(Class, ByteBuffer)},
+     * which is handed to every consumer as a read-only view of the same memory.
+     */
+    static final class BufferOutcome {
+
+        private final ByteBuffer buffer;
+        private final boolean pooled;
+
+        BufferOutcome(ByteBuffer buffer, boolean pooled) {
+            this.buffer = buffer;
+            this.pooled = pooled;
+        }
+
+        /**
+         * Whether the buffer may belong to an arena, in which case
+         * it must not outlive the consume invocation.
+         */
+        boolean isPooled() {
+            return pooled;
+        }
+
+        /**
+         * Size of the outcome in bytes
+         */
+        int size() {
+            return buffer.remaining();
+        }
+
+        /**
+         * Returns a read-only view of the outcome with its own position and limit
+         */
+        ByteBuffer view() {
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private final Pool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>(1);
+    private ByteBuffer chunk;
+
+    BufferArena(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Allocates a direct buffer of the specified capacity
+     *
+     * @param capacity  capacity of the buffer in bytes
+     * @return  direct buffer
+     */
+    ByteBuffer allocate(int capacity) {
+        if(capacity < 0) {
+            throw new IllegalArgumentException("Buffer capacity can't be negative: " + capacity);
+        }
+        if(capacity > pool.chunkSize) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        int position = chunk == null ? 0 : (chunk.position() + ALIGNMENT - 1) & -ALIGNMENT;
+        if(chunk == null || position > pool.chunkSize - capacity) {
+            chunk = pool.take();
+            chunks.add(chunk);
+            position = 0;
+        }
+        chunk.limit(position + capacity).position(position);
+        final ByteBuffer buffer = chunk.slice();
+        chunk.limit(chunk.capacity()).position(position + capacity);
+        return buffer;
+    }
+
+    /**
+     * Returns the chunks to the pool. The buffers allocated from
+     * the arena must not be accessed afterwards.
+     */
+    void release() {
+        for(ByteBuffer chunk : chunks) {
+            pool.recycle(chunk);
+        }
+        chunks.clear();
+        chunk = null;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy of caching the outcomes of a specific type across
+ * consume invocations, declared by a phase handler with
+ * {@link PhaseRegistration#provides(Class, CachePolicy)}.
+ *
+ * <p>Cached outcomes are associated with the values of the outcomes
+ * the handler consumed to produce them. Once a phase providing only cached
+ * outcome types has been processed, it will not be processed again
+ * for equal input values as long as the cached outcomes haven't been
+ * evicted. So the consumed outcomes are expected to implement
+ * {@code equals()} and {@code hashCode()} and the cached outcomes are
+ * expected to be immutable, since they will be shared across invocations
+ * and threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class CachePolicy {
+
+    /**
+     * Policy limiting the number of cached outcomes.
+     * The least recently used outcomes are evicted first.
+     *
+     * @param maxSize  maximum number of cached input value combinations
+     * @return  cache policy
+     */
+    public static CachePolicy maxSize(int maxSize) {
+        return new CachePolicy(maxSize, 0);
+    }
+
+    /**
+     * Policy limiting the number of cached outcomes and
+     * the time they remain cached.
+     *
+     * @param maxSize  maximum number of cached input value combinations
+     * @param ttl  time an outcome remains cached
+     * @param unit  time unit
+     * @return  cache policy
+     */
+    public static CachePolicy of(int maxSize, long ttl, TimeUnit unit) {
+        if(ttl <= 0) {
+            throw new IllegalArgumentException("TTL has to be positive: " + ttl);
+        }
+        return new CachePolicy(maxSize, unit.toNanos(ttl));
+    }
+
+    final int maxSize;
+    /** Time to live in nanoseconds, 0 if the outcomes don't expire */
+    final long ttlNanos;
+
+    private CachePolicy(int maxSize, long ttlNanos) {
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size has to be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl(TimeUnit unit) {
+        return unit.convert(ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Policy satisfying the limits of this and the other policy.
+     */
+    CachePolicy merge(CachePolicy other) {
+        final long ttlNanos;
+        if(this.ttlNanos == 0) {
+            ttlNanos = other.ttlNanos;
+        } else if(other.ttlNanos == 0) {
+            ttlNanos = this.ttlNanos;
+        } else {
+            ttlNanos = Math.min(this.ttlNanos, other.ttlNanos);
+        }
+        return new CachePolicy(Math.min(maxSize, other.maxSize), ttlNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy[maxSize=" + maxSize + (ttlNanos == 0 ? "" : ", ttl=" + ttlNanos + "ns") + "]";
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.Collections;
+
+/**
+ * Base class of the routers generated ahead of time for a fixed set of
+ * phase handlers and outcome types. A generated router processes the phases
+ * of the plans resolved at generation time by invoking the handlers directly,
+ * in the resolved order, with a context backed by an array of outcome slots.
+ * So, at runtime, there is neither phase resolution nor lookup of plans.
+ *
+ * <p>The handlers are registered when the router is created, which assigns
+ * the outcome type ids. The order of the phases of every generated plan is
+ * checked with {@link #checkPlan(Class, Class[], int...)}, so that a router
+ * generated for handlers whose registrations have changed since
+ * fails to be created instead of failing to produce outcomes.
+ *
+ * @author Alexey Loubyansky
+ */
+public abstract class CompiledRouter {
+
+    private final PhaseDescription[] phases;
+    private final OutcomeTypes types;
+
+    protected CompiledRouter(PhaseHandler... handlers) throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        for(PhaseHandler handler : handlers) {
+            factory.addPhase(handler);
+        }
+        phases = factory.phases.toArray(new PhaseDescription[factory.phases.size()]);
+        for(PhaseDescription phaseDescr : phases) {
+            if(phaseDescr.streaming) {
+                throw new PhaseRouterException("Phases providing streamed outcomes are not supported by generated routers: " + phaseDescr.handler);
+            }
+        }
+        types = new OutcomeTypes(factory.keys);
+    }
+
+    /**
+     * Checks that the phases, specified by the indexes of their handlers
+     * passed to the constructor, produce the outcome of the target type
+     * from values of the input types when processed in the specified order.
+     *
+     * @param target  outcome type
+     * @param inputTypes  input types
+     * @param phaseIndexes  indexes of the handlers in the order they are processed
+     * @throws PhaseRouterException  in case the phases don't produce the outcome
+     */
+    protected final void checkPlan(Class<?> target, Class<?>[] inputTypes, int... phaseIndexes) throws PhaseRouterException {
+        TypeSet available = TypeSet.EMPTY;
+        for(Class<?> inputType : inputTypes) {
+            final int id = types.id(inputType);
+            if(id >= 0) {
+                available = available.with(id);
+            }
+        }
+        for(int i : phaseIndexes) {
+            final PhaseDescription phaseDescr = phases[i];
+            for(int consumedType : phaseDescr.consumedIds) {
+                if(!available.contains(consumedType)) {
+                    throw new PhaseRouterException("Generated router is out of date: " + phaseDescr.handler
+                            + " consumes outcome of type " + types.type(consumedType).getName() + " which is not available in the plan for " + target.getName());
+                }
+            }
+            for(int providedType : phaseDescr.providedIds) {
+                available = available.with(providedType);
+            }
+        }
+        final int id = types.id(target);
+        if(id < 0 || !available.contains(id)) {
+            throw new PhaseRouterException("Generated router is out of date: the plan for " + target.getName() + " does not produce it");
+        }
+    }
+
+    /**
+     * Id of the outcome type or -1, if the type is not consumed
+     * or provided by any of the handlers
+     *
+     * @param type  outcome type
+     * @return  outcome type id
+     */
+    protected final int id(Class<?> type) {
+        return types.id(type);
+    }
+
+    /**
+     * Creates a new empty processing context
+     *
+     * @return  processing context
+     */
+    protected final PhaseProcessingContext newContext() {
+        return new ProcessingContext(types, new Object[types.size()], Collections.emptyMap(), false);
+    }
+
+    /**
+     * Adds a value to the context
+     *
+     * @param ctx  context created with {@link #newContext()}
+     * @param id  outcome type id
+     * @param type  outcome type
+     * @param value  value
+     * @throws PhaseRouterException  in case a value of the type has already been provided
+     */
+    protected final <T> void provide(PhaseProcessingContext ctx, int id, Class<T> type, T value) throws PhaseRouterException {
+        ((ProcessingContext) ctx).put(id, type, value);
+    }
+
+    /**
+     * Returns the outcome from the context
+     *
+     * @param ctx  context created with {@link #newContext()}
+     * @param id  outcome type id
+     * @param type  outcome type
+     * @return  outcome
+     * @throws PhaseRouterException  in case the outcome is not available
+     */
+    protected final <T> T consume(PhaseProcessingContext ctx, int id, Class<T> type) throws PhaseRouterException {
+        return ((ProcessingContext) ctx).get(id, type);
+    }
+}
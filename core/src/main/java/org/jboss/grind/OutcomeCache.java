@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcomes of a phase cached across consume invocations per combination
+ * of the values of the outcomes the phase consumed.
+ *
+ * @author Alexey Loubyansky
+ */
+class OutcomeCache {
+
+    /**
+     * Values of the outcomes consumed by a phase
+     */
+    private static final class Inputs {
+        private final Object[] values;
+        private final int hash;
+
+        Inputs(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            final Inputs other = (Inputs) obj;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+    }
+
+    private static final class Outcomes {
+        final Object[] values;
+        final long cachedNanos;
+
+        Outcomes(Object[] values, long cachedNanos) {
+            this.values = values;
+            this.cachedNanos = cachedNanos;
+        }
+    }
+
+    private final PhaseDescription phase;
+    private final long ttlNanos;
+    private final Map<Inputs, Outcomes> outcomes;
+
+    OutcomeCache(PhaseDescription phase, CachePolicy policy) {
+        this.phase = phase;
+        this.ttlNanos = policy.ttlNanos;
+        final int maxSize = policy.maxSize;
+        outcomes = new LinkedHashMap<Inputs, Outcomes>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Inputs, Outcomes> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Provides the cached outcomes of the phase to the context,
+     * if the outcomes were cached for the consumed values in the context.
+     *
+     * @param ctx  processing context
+     * @return  true if the outcomes were found in the cache, otherwise false
+     * @throws PhaseRouterException  in case of a failure
+     */
+    boolean restore(ProcessingContext ctx) throws PhaseRouterException {
+        final Inputs inputs = inputs(ctx);
+        final Outcomes cached;
+        synchronized(outcomes) {
+            cached = outcomes.get(inputs);
+            if(cached == null) {
+                return false;
+            }
+            if(ttlNanos > 0 && System.nanoTime() - cached.cachedNanos > ttlNanos) {
+                outcomes.remove(inputs);
+                return false;
+            }
+        }
+        for(int i = 0; i < phase.providedIds.length; ++i) {
+            ctx.put(phase.providedIds[i], phase.providedTypes.get(i), cached.values[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Caches the outcomes the phase provided to the context.
+     *
+     * @param ctx  processing context
+     */
+    void store(ProcessingContext ctx) {
+        final Object[] values = new Object[phase.providedIds.length];
+        for(int i = 0; i < values.length; ++i) {
+            values[i] = ctx.slots[phase.providedIds[i]];
+            if(values[i] == null) {
+                // the handler didn't provide all of its outcomes
+                return;
+            }
+            if(values[i] instanceof BufferArena.BufferOutcome && ((BufferArena.BufferOutcome) values[i]).isPooled()) {
+                // the memory will be reused by the following invocations
+                return;
+            }
+        }
+        final Inputs inputs = inputs(ctx);
+        final Outcomes cached = new Outcomes(values, System.nanoTime());
+        synchronized(outcomes) {
+            outcomes.put(inputs, cached);
+        }
+    }
+
+    private Inputs inputs(ProcessingContext ctx) {
+        final Object[] values = new Object[phase.consumedIds.length];
+        for(int i = 0; i < values.length; ++i) {
+            values[i] = ctx.slots[phase.consumedIds[i]];
+        }
+        return new Inputs(values);
+    }
+}
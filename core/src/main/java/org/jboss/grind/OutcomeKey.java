@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+/**
+ * Handle of an outcome type registered with a phase router factory.
+ *
+ * Every outcome type consumed or provided by the registered phase handlers
+ * is assigned a dense integer id, which the processing context uses to
+ * store and look up the outcomes of the type. Consuming and providing
+ * outcomes using keys instead of classes avoids the class-keyed lookups.
+ *
+ * <p>Keys are returned by {@link PhaseRegistration#getKey(Class)} and
+ * are valid only for the routers built by the factory that created them.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class OutcomeKey<T> {
+
+    private final Class<T> type;
+    final int id;
+    /** Whether the outcomes of the type are streamed */
+    boolean streamed;
+
+    OutcomeKey(Class<T> type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * Outcome type
+     *
+     * @return  outcome type
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "OutcomeKey[" + type.getName() + "]";
+    }
+}
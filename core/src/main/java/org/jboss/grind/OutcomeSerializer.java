@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Serializes outcomes of a specific type, allowing the router to spill
+ * large outcomes to memory-mapped temporary files instead of keeping
+ * them on the heap while the rest of the phases are processed
+ * (see {@link PhaseRouterFactory#setOutcomeSerializer(Class, OutcomeSerializer)}).
+ *
+ * @author Alexey Loubyansky
+ */
+public interface OutcomeSerializer<T> {
+
+    /**
+     * Estimated size of the serialized outcome in bytes, which is compared
+     * to the spill threshold when the outcome is provided. This method
+     * is invoked for every provided outcome of the type, so it should be cheap.
+     *
+     * @param outcome  outcome
+     * @return  estimated size of the serialized outcome in bytes
+     */
+    long sizeOf(T outcome);
+
+    /**
+     * Writes the outcome to the channel.
+     *
+     * @param outcome  outcome
+     * @param channel  channel to write the outcome to
+     * @throws IOException  in case of a failure to write
+     */
+    void write(T outcome, WritableByteChannel channel) throws IOException;
+
+    /**
+     * Creates the outcome from its serialized form. Invoked every time
+     * a spilled outcome is consumed with a new read-only buffer mapped
+     * to the content written by {@link #write(Object, WritableByteChannel)}.
+     * To keep the outcome off the heap, the returned outcome should be
+     * a view reading the buffer instead of a copy of its content.
+     *
+     * @param buffer  read-only buffer positioned at the beginning of the serialized outcome
+     * @return  outcome
+     * @throws IOException  in case of a failure to read
+     */
+    T read(ByteBuffer buffer) throws IOException;
+}
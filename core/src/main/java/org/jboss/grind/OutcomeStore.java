@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Spills the outcomes whose serialized size reaches the threshold to
+ * temporary files mapped into memory, so that they are kept in the page
+ * cache instead of the heap until consumed.
+ *
+ * <p>A spilled outcome is written to a temporary file opened with
+ * {@link StandardOpenOption#DELETE_ON_CLOSE}, which is mapped and closed
+ * right away, so the file is not left behind and the mapped memory
+ * is released once the outcome is no longer referenced.
+ *
+ * @author Alexey Loubyansky
+ */
+final class OutcomeStore {
+
+    /**
+     * Outcome written to a mapped temporary file, which is read
+     * by the serializer every time the outcome is consumed.
+     * Spilled outcomes are equal if they are of the same type
+     * and have the same serialized content, so that they can be
+     * used as the keys of the cached outcomes.
+     */
+    static final class SpilledOutcome {
+
+        private final Class<?> type;
+        private final OutcomeSerializer<?> serializer;
+        private final ByteBuffer buffer;
+        /** Hash of the content, computed on the first use */
+        private int hash;
+
+        SpilledOutcome(Class<?> type, OutcomeSerializer<?> serializer, ByteBuffer buffer) {
+            this.type = type;
+            this.serializer = serializer;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Size of the serialized outcome in bytes
+         */
+        long size() {
+            return buffer.capacity();
+        }
+
+        /**
+         * Read-only view of the serialized outcome
+         */
+        ByteBuffer buffer() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        Object read() throws PhaseRouterException {
+            try {
+                return serializer.read(buffer.asReadOnlyBuffer());
+            } catch (IOException e) {
+                throw new PhaseRouterException("Failed to read spilled outcome of type " + type.getName(), e);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.hash;
+            if(hash == 0) {
+                hash = 31 * type.hashCode() + buffer.hashCode();
+                this.hash = hash;
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            final SpilledOutcome other = (SpilledOutcome) obj;
+            return type == other.type && hashCode() == other.hashCode() && buffer.equals(other.buffer);
+        }
+    }
+
+    private final OutcomeSerializer<?>[] serializers;
+    private final long threshold;
+    private final Path directory;
+
+    /**
+     * Creates a store for the types with serializers or returns null,
+     * if no serializer was configured for any of the registered types.
+     *
+     * @param keys  outcome type keys
+     * @param serializers  serializers per outcome type
+     * @param threshold  minimum size of the spilled outcomes in bytes
+     * @param directory  directory for the temporary files or null for the default one
+     * @return  store or null
+     */
+    static OutcomeStore newInstance(Map<Class<?>, OutcomeKey<?>> keys, Map<Class<?>, OutcomeSerializer<?>> serializers, long threshold, Path directory) {
+        OutcomeSerializer<?>[] index = null;
+        for(Map.Entry<Class<?>, OutcomeSerializer<?>> entry : serializers.entrySet()) {
+            final OutcomeKey<?> key = keys.get(entry.getKey());
+            if(key == null || key.streamed) {
+                continue;
+            }
+            if(index == null) {
+                index = new OutcomeSerializer<?>[keys.size()];
+            }
+            index[key.id] = entry.getValue();
+        }
+        return index == null ? null : new OutcomeStore(index, threshold, directory);
+    }
+
+    private OutcomeStore(OutcomeSerializer<?>[] serializers, long threshold, Path directory) {
+        this.serializers = serializers;
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * Serializer of the outcome type or null, if the type has no serializer.
+     *
+     * @param id  outcome type id
+     * @return  serializer or null
+     */
+    @SuppressWarnings("unchecked")
+    OutcomeSerializer<Object> serializer(int id) {
+        return (OutcomeSerializer<Object>) serializers[id];
+    }
+
+    /**
+     * Spills the outcome, if it has a serializer and its size reaches the threshold.
+     *
+     * @param id  outcome type id
+     * @param type  outcome type
+     * @param value  outcome
+     * @return  the outcome itself or the spilled outcome
+     * @throws PhaseRouterException  in case of a failure to spill the outcome
+     */
+    @SuppressWarnings("unchecked")
+    Object store(int id, Class<?> type, Object value) throws PhaseRouterException {
+        final OutcomeSerializer<Object> serializer = (OutcomeSerializer<Object>) serializers[id];
+        if(serializer == null || value instanceof SpilledOutcome || serializer.sizeOf(value) < threshold) {
+            return value;
+        }
+        try {
+            final Path file = directory == null ? Files.createTempFile("grind", ".outcome") : Files.createTempFile(directory, "grind", ".outcome");
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                serializer.write(value, channel);
+                final long size = channel.size();
+                if(size > Integer.MAX_VALUE) {
+                    throw new PhaseRouterException("Spilled outcome of type " + type.getName() + " exceeds the maximum size of "
+                            + Integer.MAX_VALUE + " bytes: " + size);
+                }
+                return new SpilledOutcome(type, serializer, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        } catch (IOException e) {
+            throw new PhaseRouterException("Failed to spill outcome of type " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the outcome, reading it, if it was spilled.
+     */
+    static Object read(Object value) throws PhaseRouterException {
+        return value instanceof SpilledOutcome ? ((SpilledOutcome) value).read() : value;
+    }
+}
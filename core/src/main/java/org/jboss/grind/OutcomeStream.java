@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Bounded buffer of the elements of a streamed outcome. The phase
+ * providing the outcome blocks when the buffer is full until the phase
+ * consuming the outcome takes the buffered elements.
+ *
+ * <p>A stream can be iterated only once.
+ *
+ * @author Alexey Loubyansky
+ */
+final class OutcomeStream<T> implements Iterable<T> {
+
+    private final Class<T> type;
+    private final int capacity;
+    private final ArrayDeque<T> buffer;
+    private boolean closed;
+    private boolean discarded;
+    private boolean iterated;
+    private Throwable failure;
+
+    OutcomeStream(Class<T> type, int capacity) {
+        this.type = type;
+        this.capacity = capacity;
+        buffer = new ArrayDeque<>(Math.min(capacity, 16));
+    }
+
+    /**
+     * Adds an element to the stream blocking while the buffer is full.
+     *
+     * @param element  stream element
+     * @throws PhaseRouterException  in case the stream was aborted or the thread was interrupted
+     */
+    synchronized void put(T element) throws PhaseRouterException {
+        while(buffer.size() == capacity && !discarded && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PhaseRouterException(e);
+            }
+        }
+        if(failure != null) {
+            throw new PhaseRouterException("Outcome stream of type " + type.getName() + " has been aborted");
+        }
+        if(discarded) {
+            return;
+        }
+        if(closed) {
+            throw new PhaseRouterException("Outcome stream of type " + type.getName() + " has been closed");
+        }
+        buffer.add(element);
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the stream
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Fails the stream, the pending and the following operations
+     * will fail with the specified error.
+     *
+     * @param failure  failure
+     */
+    synchronized void abort(Throwable failure) {
+        if(this.failure == null) {
+            this.failure = failure;
+        }
+        buffer.clear();
+        notifyAll();
+    }
+
+    /**
+     * Drops the buffered and the following elements, which is called
+     * when there are no more phases that could consume them.
+     */
+    synchronized void discard() {
+        discarded = true;
+        buffer.clear();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized Iterator<T> iterator() {
+        if(iterated) {
+            throw new IllegalStateException("Outcome stream of type " + type.getName() + " has already been consumed");
+        }
+        iterated = true;
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                synchronized(OutcomeStream.this) {
+                    return awaitElement();
+                }
+            }
+
+            @Override
+            public T next() {
+                synchronized(OutcomeStream.this) {
+                    if(!awaitElement()) {
+                        throw new NoSuchElementException();
+                    }
+                    final T element = buffer.poll();
+                    OutcomeStream.this.notifyAll();
+                    return element;
+                }
+            }
+        };
+    }
+
+    private boolean awaitElement() {
+        while(buffer.isEmpty() && !closed && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the outcome stream of type " + type.getName(), e);
+            }
+        }
+        if(failure != null) {
+            throw new IllegalStateException("Failed to produce the outcome stream of type " + type.getName(), failure);
+        }
+        return !buffer.isEmpty();
+    }
+}
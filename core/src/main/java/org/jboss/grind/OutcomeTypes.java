@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome types registered with a router and their ids.
+ *
+ * <p>In the polymorphic mode, an outcome is also available as each of
+ * the registered types it is assignable to, its supertypes, and an outcome
+ * of a type that is not registered is consumed as the outcome of the first
+ * registered subtype of it. The registered supertypes of the registered types
+ * are computed once, when the router is built, and those of the other
+ * types, as well as the subtypes of unregistered types, are computed
+ * once per type and cached in class values, so the polymorphic lookups
+ * are as cheap as the exact ones.
+ *
+ * @author Alexey Loubyansky
+ */
+final class OutcomeTypes {
+
+    private static final Integer UNKNOWN = -1;
+    private static final int[] NONE = new int[0];
+
+    /** Keys indexed by their ids */
+    final OutcomeKey<?>[] keys;
+    private final ClassValue<Integer> exactIds;
+    /** Ids to consume the outcomes of the types from, same as the exact ones unless polymorphic */
+    private final ClassValue<Integer> ids;
+    /** Registered supertypes of the registered types indexed by their ids or null, unless polymorphic */
+    private final int[][] supertypeIds;
+    /** Registered supertypes of the types or null, unless polymorphic */
+    private final ClassValue<int[]> supertypes;
+    /** Store spilling large outcomes or null, if no outcome is spilled */
+    final OutcomeStore store;
+
+    OutcomeTypes(Map<Class<?>, OutcomeKey<?>> keys) {
+        this(keys, false, null);
+    }
+
+    OutcomeTypes(Map<Class<?>, OutcomeKey<?>> keys, boolean polymorphic, OutcomeStore store) {
+        this.store = store;
+        this.keys = new OutcomeKey<?>[keys.size()];
+        for(OutcomeKey<?> key : keys.values()) {
+            this.keys[key.id] = key;
+        }
+        final OutcomeKey<?>[] index = this.keys;
+        exactIds = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                return exactId(index, type);
+            }
+        };
+        if(!polymorphic) {
+            supertypeIds = null;
+            supertypes = null;
+            ids = exactIds;
+            return;
+        }
+        final ClassValue<Integer> exactIds = this.exactIds;
+        supertypeIds = new int[index.length][];
+        for(OutcomeKey<?> key : index) {
+            supertypeIds[key.id] = supertypes(index, key.getType(), key.id);
+        }
+        final int[][] supertypeIndex = supertypeIds;
+        supertypes = new ClassValue<int[]>() {
+            @Override
+            protected int[] computeValue(Class<?> type) {
+                final int id = exactIds.get(type);
+                return id < 0 ? supertypes(index, type, id) : supertypeIndex[id];
+            }
+        };
+        ids = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                final int id = exactIds.get(type);
+                if(id >= 0) {
+                    return id;
+                }
+                for(OutcomeKey<?> key : index) {
+                    if(type.isAssignableFrom(key.getType())) {
+                        return key.id;
+                    }
+                }
+                return UNKNOWN;
+            }
+        };
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the id of the outcome type or -1, in case the type
+     * is not consumed or provided by any of the registered handlers.
+     * In the polymorphic mode, the id of the first registered subtype
+     * of a type that is not registered is returned.
+     *
+     * <p>This is the id of the slot the outcome of the type is consumed from.
+     * Outcomes are provided using {@link #exactId(Class)}.
+     *
+     * @param type  outcome type
+     * @return  outcome type id or -1
+     */
+    int id(Class<?> type) {
+        return ids.get(type);
+    }
+
+    /**
+     * Returns the id of the outcome type or -1, in case the type
+     * is not consumed or provided by any of the registered handlers.
+     *
+     * @param type  outcome type
+     * @return  outcome type id or -1
+     */
+    int exactId(Class<?> type) {
+        return exactIds.get(type);
+    }
+
+    Class<?> type(int id) {
+        return keys[id].getType();
+    }
+
+    boolean isPolymorphic() {
+        return supertypes != null;
+    }
+
+    /**
+     * Ids of the registered proper supertypes of the type,
+     * empty unless the types are polymorphic.
+     *
+     * @param type  outcome type
+     * @return  ids of the registered supertypes
+     */
+    int[] supertypes(Class<?> type) {
+        return supertypes == null ? NONE : supertypes.get(type);
+    }
+
+    /**
+     * Ids of the registered proper supertypes of the registered type,
+     * empty unless the types are polymorphic.
+     *
+     * @param id  outcome type id
+     * @return  ids of the registered supertypes
+     */
+    int[] supertypes(int id) {
+        return supertypeIds == null ? NONE : supertypeIds[id];
+    }
+
+    private static int exactId(OutcomeKey<?>[] index, Class<?> type) {
+        for(OutcomeKey<?> key : index) {
+            if(key.getType() == type) {
+                return key.id;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static int[] supertypes(OutcomeKey<?>[] index, Class<?> type, int id) {
+        List<Integer> result = null;
+        for(OutcomeKey<?> key : index) {
+            if(key.id != id && key.getType().isAssignableFrom(type)) {
+                if(result == null) {
+                    result = new ArrayList<>(1);
+                }
+                result.add(key.id);
+            }
+        }
+        if(result == null) {
+            return NONE;
+        }
+        final int[] ids = new int[result.size()];
+        for(int i = 0; i < ids.length; ++i) {
+            ids[i] = result.get(i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+/**
+ * Outcomes consumed together with {@link PhaseRouter#consumeAll(Class...)}.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class Outcomes {
+
+    private final ProcessingContext ctx;
+
+    Outcomes(ProcessingContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Returns the outcome of the specified type
+     *
+     * @param type  outcome type
+     * @return  outcome
+     * @throws PhaseRouterException  in case the outcome is not available
+     */
+    public <T> T get(Class<T> type) throws PhaseRouterException {
+        return ctx.consume(type);
+    }
+
+    /**
+     * Returns the outcome for the specified key
+     *
+     * @param key  outcome key
+     * @return  outcome
+     * @throws PhaseRouterException  in case the outcome is not available
+     */
+    public <T> T get(OutcomeKey<T> key) throws PhaseRouterException {
+        return ctx.consume(key);
+    }
+
+    public boolean isAvailable(Class<?> type) {
+        return ctx.isAvailable(type);
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of phase outcomes stored in a local directory, which survives
+ * process restarts (see {@link PhaseRouterFactory#setPersistentCache(PersistentOutcomeCache)}).
+ *
+ * <p>The outcomes of a phase are stored in a file named after the SHA-256
+ * hash of the handler class name, the handler version and the SHA-256 hashes
+ * of the serialized content of the outcomes the phase consumed, so a phase
+ * consuming outcomes with the same content is not processed again, no matter
+ * which phases or invocations produced them. The outcomes are serialized
+ * with the serializers configured for their types and read lazily from
+ * the memory-mapped cache file when consumed.
+ *
+ * <p>The total size of the cache files is bounded. Once it exceeds the
+ * maximum, the least recently used files are deleted, the modification
+ * time of a file being updated every time its outcomes are reused.
+ * The same directory should not be shared by concurrently running processes.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class PersistentOutcomeCache {
+
+    /** Cache file header, "GRNC" */
+    private static final int MAGIC = 0x47524e43;
+    private static final short VERSION = 1;
+    private static final String SUFFIX = ".outcomes";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Channel computing the SHA-256 hash of the written content
+     */
+    private static final class DigestChannel implements WritableByteChannel {
+
+        private final MessageDigest digest = sha256();
+
+        @Override
+        public int write(ByteBuffer src) {
+            final int written = src.remaining();
+            digest.update(src);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final Path directory;
+    private final long maxSize;
+    /** Total size of the cache files, guarded by this cache */
+    private long size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache stored in the directory, which is created if it
+     * does not exist.
+     *
+     * @param directory  cache directory
+     * @param maxSize  maximum total size of the cache files in bytes
+     * @throws IOException  in case of a failure to create or read the directory
+     */
+    public PersistentOutcomeCache(Path directory, long maxSize) throws IOException {
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size has to be positive: " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        for(Path file : files()) {
+            size += Files.size(file);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Total size of the cache files in bytes
+     *
+     * @return  size of the cache
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of times the outcomes of a phase were loaded from the cache
+     *
+     * @return  cache hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of times the outcomes of a phase were not found in the cache
+     *
+     * @return  cache misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Deletes all the cache files.
+     *
+     * @throws IOException  in case of a failure to delete a file
+     */
+    public synchronized void clear() throws IOException {
+        for(Path file : files()) {
+            Files.deleteIfExists(file);
+        }
+        size = 0;
+    }
+
+    /**
+     * Computes the key of the outcomes of the phase for the outcomes
+     * in the context.
+     *
+     * @param phase  phase
+     * @param ctx  processing context including the outcomes consumed by the phase
+     * @param store  store with the serializers of the outcome types
+     * @return  key of the outcomes
+     * @throws PhaseRouterException  in case of a failure to serialize a consumed outcome
+     */
+    String key(PhaseDescription phase, ProcessingContext ctx, OutcomeStore store) throws PhaseRouterException {
+        final MessageDigest digest = sha256();
+        digest.update(phase.handler.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(phase.version.getBytes(StandardCharsets.UTF_8));
+        for(int i = 0; i < phase.consumedIds.length; ++i) {
+            digest.update((byte) 0);
+            digest.update(phase.consumedTypes.get(i).getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(contentHash(ctx, phase.consumedIds[i], phase.consumedTypes.get(i), store));
+        }
+        for(Class<?> providedType : phase.providedTypes) {
+            digest.update((byte) 1);
+            digest.update(providedType.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Provides the cached outcomes of the phase to the context.
+     *
+     * @param key  key of the outcomes
+     * @param phase  phase
+     * @param ctx  processing context
+     * @param store  store with the serializers of the outcome types
+     * @return  true, if the outcomes were found in the cache, otherwise false
+     * @throws PhaseRouterException  in case of a failure
+     */
+    boolean restore(String key, PhaseDescription phase, ProcessingContext ctx, OutcomeStore store) throws PhaseRouterException {
+        final Path file = directory.resolve(key + SUFFIX);
+        if(!Files.exists(file)) {
+            misses.increment();
+            return false;
+        }
+        final OutcomeStore.SpilledOutcome[] outcomes = new OutcomeStore.SpilledOutcome[phase.providedIds.length];
+        try {
+            final ByteBuffer buffer;
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if(buffer.getInt() != MAGIC || buffer.getShort() != VERSION || buffer.getInt() != outcomes.length) {
+                throw new IOException("Unexpected header");
+            }
+            for(int i = 0; i < outcomes.length; ++i) {
+                final byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                final Class<?> type = phase.providedTypes.get(i);
+                if(!type.getName().equals(new String(name, StandardCharsets.UTF_8))) {
+                    throw new IOException("Unexpected outcome type");
+                }
+                final long length = buffer.getLong();
+                if(length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Unexpected outcome size");
+                }
+                final ByteBuffer content = buffer.duplicate();
+                content.limit(buffer.position() + (int) length);
+                buffer.position(content.limit());
+                outcomes[i] = new OutcomeStore.SpilledOutcome(type, store.serializer(phase.providedIds[i]), content.slice());
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch(IOException | RuntimeException e) {
+            // a corrupted or concurrently evicted entry is a miss
+            misses.increment();
+            delete(file);
+            return false;
+        }
+        for(int i = 0; i < outcomes.length; ++i) {
+            ctx.put(phase.providedIds[i], phase.providedTypes.get(i), outcomes[i]);
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Stores the outcomes of the phase provided to the context,
+     * unless the phase didn't provide all of its outcomes. Storing is
+     * best-effort: if the outcomes could not be written, they are simply
+     * not cached, so that the invocation doesn't fail because of the cache.
+     *
+     * @param key  key of the outcomes
+     * @param phase  phase
+     * @param ctx  processing context
+     * @param store  store with the serializers of the outcome types
+     */
+    void store(String key, PhaseDescription phase, ProcessingContext ctx, OutcomeStore store) {
+        for(int providedType : phase.providedIds) {
+            if(ctx.slots[providedType] == null || ctx.slots[providedType] instanceof BufferArena.BufferOutcome) {
+                return;
+            }
+        }
+        final Path file = directory.resolve(key + SUFFIX);
+        try {
+            final Path tmp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    final ByteBuffer header = ByteBuffer.allocate(10);
+                    header.putInt(MAGIC).putShort(VERSION).putInt(phase.providedIds.length).flip();
+                    write(channel, header);
+                    for(int i = 0; i < phase.providedIds.length; ++i) {
+                        final byte[] name = phase.providedTypes.get(i).getName().getBytes(StandardCharsets.UTF_8);
+                        final ByteBuffer typeHeader = ByteBuffer.allocate(4 + name.length + 8);
+                        typeHeader.putInt(name.length).put(name);
+                        final long lengthPosition = channel.position() + typeHeader.position();
+                        typeHeader.putLong(0).flip();
+                        write(channel, typeHeader);
+                        writeOutcome(ctx.slots[phase.providedIds[i]], store.serializer(phase.providedIds[i]), channel);
+                        final long end = channel.position();
+                        final ByteBuffer length = ByteBuffer.allocate(8);
+                        length.putLong(end - lengthPosition - 8).flip();
+                        channel.write(length, lengthPosition);
+                        channel.position(end);
+                    }
+                }
+                final long fileSize = Files.size(tmp);
+                synchronized(this) {
+                    final long replaced = Files.exists(file) ? Files.size(file) : 0;
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    size += fileSize - replaced;
+                    if(size > maxSize) {
+                        evict();
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch(IOException e) {
+            // the entry is dropped along with its temporary file
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the size of the cache
+     * doesn't exceed the maximum.
+     */
+    private void evict() throws IOException {
+        final List<Path> files = files();
+        final List<FileTime> times = new ArrayList<>(files.size());
+        long total = 0;
+        for(Path file : files) {
+            times.add(Files.getLastModifiedTime(file));
+            total += Files.size(file);
+        }
+        final List<Integer> order = new ArrayList<>(files.size());
+        for(int i = 0; i < files.size(); ++i) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(times::get));
+        for(int i : order) {
+            if(total <= maxSize) {
+                break;
+            }
+            final Path file = files.get(i);
+            final long fileSize = Files.size(file);
+            if(delete(file)) {
+                total -= fileSize;
+            }
+        }
+        size = total;
+    }
+
+    private List<Path> files() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for(Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the content hash of the outcome computing it, if it hasn't
+     * been computed for the context yet.
+     */
+    private static byte[] contentHash(ProcessingContext ctx, int id, Class<?> type, OutcomeStore store) throws PhaseRouterException {
+        byte[] hash = ctx.getContentHash(id);
+        if(hash == null) {
+            final DigestChannel channel = new DigestChannel();
+            try {
+                writeOutcome(ctx.slots[id], store.serializer(id), channel);
+            } catch (IOException e) {
+                throw new PhaseRouterException("Failed to serialize outcome of type " + type.getName(), e);
+            }
+            hash = channel.digest.digest();
+            ctx.setContentHash(id, hash);
+        }
+        return hash;
+    }
+
+    private static void writeOutcome(Object value, OutcomeSerializer<Object> serializer, WritableByteChannel channel) throws IOException {
+        if(value instanceof OutcomeStore.SpilledOutcome) {
+            write(channel, ((OutcomeStore.SpilledOutcome) value).buffer());
+        } else if(value instanceof BufferArena.BufferOutcome) {
+            write(channel, ((BufferArena.BufferOutcome) value).view());
+        } else {
+            serializer.write(value, channel);
+        }
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; ++i) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package org.jboss.grind;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -27,49 +28,134 @@ import java.util.List;
  */
 public class PhaseDescription {
 
-    static final int IN_LINE = 0b000001;
-    static final int VISITED = 0b000010;
-
     protected final int id;
     protected final PhaseHandler handler;
     protected List<Class<?>> consumedTypes = Collections.emptyList();
     protected List<Class<?>> providedTypes = Collections.emptyList();
-    private int flags;
+    /** Ids of the consumed outcome types, in the order of {@link #consumedTypes} */
+    int[] consumedIds = new int[0];
+    /** Ids of the provided outcome types, in the order of {@link #providedTypes} */
+    int[] providedIds = new int[0];
+    /** Whether any of the provided outcome types is streamed */
+    boolean streaming;
+    /** Declared cost of processing the phase */
+    long cost;
+    /** Declared version of the handler or null */
+    String version;
+    /** Cache policies of the provided outcome types, in the order of {@link #providedTypes}, if any */
+    private CachePolicy[] cachePolicies;
 
     protected PhaseDescription(int id, PhaseHandler handler) {
         this.id = id;
         this.handler = handler;
     }
 
-    protected void addConsumedType(Class<?> consumedType) {
+    /**
+     * Phase id, unique among the phases added to the same router factory
+     *
+     * @return  phase id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Phase handler
+     *
+     * @return  phase handler
+     */
+    public PhaseHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Cost of processing the phase declared by the handler
+     * during registration
+     *
+     * @return  declared cost of the phase
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    /**
+     * Version of the handler declared during registration
+     *
+     * @return  handler version or null, if the handler didn't declare a version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Outcome types consumed by the phase
+     *
+     * @return  consumed outcome types
+     */
+    public List<Class<?>> getConsumedTypes() {
+        return Collections.unmodifiableList(consumedTypes);
+    }
+
+    /**
+     * Outcome types provided by the phase
+     *
+     * @return  provided outcome types
+     */
+    public List<Class<?>> getProvidedTypes() {
+        return Collections.unmodifiableList(providedTypes);
+    }
+
+    protected void addConsumedType(OutcomeKey<?> consumedType) {
         if(consumedTypes.isEmpty()) {
             consumedTypes = new ArrayList<>(1);
         }
-        consumedTypes.add(consumedType);
+        consumedTypes.add(consumedType.getType());
+        consumedIds = Arrays.copyOf(consumedIds, consumedIds.length + 1);
+        consumedIds[consumedIds.length - 1] = consumedType.id;
     }
 
-    protected void addProvidedType(Class<?> providedType) {
+    protected void addProvidedType(OutcomeKey<?> providedType) {
         if(providedTypes.isEmpty()) {
             providedTypes = new ArrayList<>(1);
         }
-        providedTypes.add(providedType);
+        providedTypes.add(providedType.getType());
+        providedIds = Arrays.copyOf(providedIds, providedIds.length + 1);
+        providedIds[providedIds.length - 1] = providedType.id;
     }
 
-    boolean isFlagOn(int flag) {
-        return (flags & flag) > 0;
+    void setCachePolicy(OutcomeKey<?> providedType, CachePolicy policy) {
+        if(cachePolicies == null) {
+            cachePolicies = new CachePolicy[providedIds.length];
+        } else if(cachePolicies.length < providedIds.length) {
+            cachePolicies = Arrays.copyOf(cachePolicies, providedIds.length);
+        }
+        for(int i = 0; i < providedIds.length; ++i) {
+            if(providedIds[i] == providedType.id) {
+                cachePolicies[i] = policy;
+            }
+        }
     }
 
-    boolean setFlag(int flag) {
-        if((flags & flag) > 0) {
-            return false;
+    /**
+     * Cache policy satisfying the policies of all the provided types
+     * or null, in case not all the provided types are cached.
+     */
+    CachePolicy getCachePolicy() {
+        if(cachePolicies == null || cachePolicies.length < providedIds.length) {
+            return null;
         }
-        flags ^= flag;
-        return true;
+        CachePolicy result = null;
+        for(CachePolicy policy : cachePolicies) {
+            if(policy == null) {
+                return null;
+            }
+            result = result == null ? policy : result.merge(policy);
+        }
+        return result;
     }
 
-    void clearFlag(int flag) {
-        if((flags & flag) > 0) {
-            flags ^= flag;
-        }
+    @Override
+    public String toString() {
+        return "Phase " + id + " " + handler.getClass().getName();
     }
 }
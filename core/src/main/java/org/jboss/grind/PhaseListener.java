@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+/**
+ * Listener notified by the router about plan resolution and
+ * phase processing, e.g. to collect metrics.
+ *
+ * Listeners are invoked by the threads resolving plans and processing
+ * the phases, so they have to be thread-safe and should not block.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface PhaseListener {
+
+    /**
+     * Invoked when a plan producing an outcome has been resolved.
+     *
+     * @param plan  resolved plan
+     * @param durationNanos  time the resolution took in nanoseconds
+     */
+    default void planResolved(PhasePlan plan, long durationNanos) {
+    }
+
+    /**
+     * Invoked when a phase has been processed successfully.
+     *
+     * @param phase  processed phase
+     * @param startNanos  {@link System#nanoTime()} when the processing started
+     * @param durationNanos  time the processing took in nanoseconds
+     */
+    default void phaseProcessed(PhaseDescription phase, long startNanos, long durationNanos) {
+    }
+
+    /**
+     * Invoked when processing of a phase failed.
+     *
+     * @param phase  phase that failed
+     * @param startNanos  {@link System#nanoTime()} when the processing started
+     * @param durationNanos  time until the failure in nanoseconds
+     * @param error  the failure
+     */
+    default void phaseFailed(PhaseDescription phase, long startNanos, long durationNanos, Throwable error) {
+    }
+}
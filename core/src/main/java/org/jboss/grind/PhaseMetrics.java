@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Phase listener collecting the number of invocations, failures and
+ * latency histograms per phase handler as well as plan resolution times.
+ *
+ * @author Alexey Loubyansky
+ */
+public class PhaseMetrics implements PhaseListener {
+
+    /**
+     * Invocation counts and latency histogram. The histogram bucket
+     * with index {@code i} counts the invocations that took from
+     * {@code 2^i} (inclusive) to {@code 2^(i+1)} (exclusive) nanoseconds.
+     */
+    public static final class Stats {
+
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(Long.SIZE);
+
+        void record(long durationNanos, boolean failed) {
+            invocations.increment();
+            if(failed) {
+                failures.increment();
+            }
+            totalNanos.add(durationNanos);
+            histogram.incrementAndGet(durationNanos <= 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(durationNanos));
+        }
+
+        public long getInvocations() {
+            return invocations.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMeanNanos() {
+            final long invocations = getInvocations();
+            return invocations == 0 ? 0 : getTotalNanos() / invocations;
+        }
+
+        /**
+         * Latency histogram with the invocation counts per power of two buckets.
+         *
+         * @return  invocation counts per bucket
+         */
+        public long[] getHistogram() {
+            final long[] counts = new long[histogram.length()];
+            for(int i = 0; i < counts.length; ++i) {
+                counts[i] = histogram.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * Upper bound of the latency bucket the specified percentile of
+         * the invocations falls into.
+         *
+         * @param percentile  percentile, from 0 to 100
+         * @return  latency upper bound in nanoseconds
+         */
+        public long getPercentileNanos(double percentile) {
+            final long[] counts = getHistogram();
+            long total = 0;
+            for(long count : counts) {
+                total += count;
+            }
+            if(total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for(int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if(seen >= rank && counts[i] > 0) {
+                    return i >= Long.SIZE - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "invocations=" + getInvocations() + ", failures=" + getFailures() + ", mean=" + getMeanNanos()
+                    + "ns, p99<=" + getPercentileNanos(99) + "ns";
+        }
+    }
+
+    private final ConcurrentMap<PhaseHandler, Stats> phases = new ConcurrentHashMap<>();
+    private final Stats resolution = new Stats();
+
+    @Override
+    public void planResolved(PhasePlan plan, long durationNanos) {
+        resolution.record(durationNanos, false);
+    }
+
+    @Override
+    public void phaseProcessed(PhaseDescription phase, long startNanos, long durationNanos) {
+        getOrCreateStats(phase.handler).record(durationNanos, false);
+    }
+
+    @Override
+    public void phaseFailed(PhaseDescription phase, long startNanos, long durationNanos, Throwable error) {
+        getOrCreateStats(phase.handler).record(durationNanos, true);
+    }
+
+    /**
+     * Plan resolution statistics
+     *
+     * @return  plan resolution statistics
+     */
+    public Stats getResolutionStats() {
+        return resolution;
+    }
+
+    /**
+     * Statistics of a phase handler
+     *
+     * @param handler  phase handler
+     * @return  statistics of the handler or null, if the handler has not been invoked
+     */
+    public Stats getStats(PhaseHandler handler) {
+        return phases.get(handler);
+    }
+
+    /**
+     * Statistics of all the phase handlers that have been invoked
+     *
+     * @return  statistics per phase handler
+     */
+    public Map<PhaseHandler, Stats> getPhaseStats() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    private Stats getOrCreateStats(PhaseHandler handler) {
+        Stats stats = phases.get(handler);
+        if(stats == null) {
+            stats = new Stats();
+            final Stats existing = phases.putIfAbsent(handler, stats);
+            if(existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("PhaseMetrics resolution: ").append(resolution);
+        for(Map.Entry<PhaseHandler, Stats> entry : phases.entrySet()) {
+            buf.append(System.lineSeparator()).append(entry.getKey().getClass().getName()).append(": ").append(entry.getValue());
+        }
+        return buf.toString();
+    }
+}
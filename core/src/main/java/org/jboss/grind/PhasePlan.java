@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable plan producing outcomes of specific types from a specific
+ * set of externally provided input types. The plan includes the phases
+ * that have to be processed, in the order they can be processed sequentially,
+ * and the dependencies between them.
+ *
+ * <p>Plans are resolved by the router the first time an outcome is consumed
+ * or upfront, when the outcome type was passed to
+ * {@link PhaseRouterFactory#compile(Class...)}.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class PhasePlan {
+
+    private static final int[] NO_DEPS = new int[0];
+
+    private final List<Class<?>> types;
+    private final Set<Class<?>> inputTypes;
+    /** Ids of the produced outcome types */
+    final int[] typeIds;
+    /** Phases in the order they can be processed sequentially */
+    final PhaseDescription[] phases;
+    /** Indexes of the phases in the plan whose outcomes the phase at the same index consumes */
+    final int[][] dependencies;
+    /** Indexes of the phases in the plan providing the outcomes indexed by the type ids or -1 */
+    final int[] providerIndex;
+
+    PhasePlan(OutcomeKey<?>[] targets, TypeSet inputs, OutcomeTypes outcomeTypes, List<PhaseDescription> chain) {
+        final OutcomeKey<?>[] keys = outcomeTypes.keys;
+        typeIds = new int[targets.length];
+        for(int i = 0; i < targets.length; ++i) {
+            typeIds[i] = targets[i].id;
+        }
+        if(targets.length == 1) {
+            types = Collections.singletonList(targets[0].getType());
+        } else {
+            final List<Class<?>> tmp = new ArrayList<>(targets.length);
+            for(OutcomeKey<?> target : targets) {
+                tmp.add(target.getType());
+            }
+            types = Collections.unmodifiableList(tmp);
+        }
+        if(inputs.isEmpty()) {
+            inputTypes = Collections.emptySet();
+        } else {
+            final Set<Class<?>> tmp = new HashSet<>();
+            for(OutcomeKey<?> key : keys) {
+                if(inputs.contains(key.id)) {
+                    tmp.add(key.getType());
+                }
+            }
+            inputTypes = Collections.unmodifiableSet(tmp);
+        }
+        phases = chain.toArray(new PhaseDescription[chain.size()]);
+        dependencies = new int[phases.length][];
+        providerIndex = new int[keys.length];
+        Arrays.fill(providerIndex, -1);
+        for(int i = 0; i < phases.length; ++i) {
+            final PhaseDescription phaseDescr = phases[i];
+            int[] deps = NO_DEPS;
+            for(int consumedType : phaseDescr.consumedIds) {
+                if(inputs.contains(consumedType)) {
+                    continue;
+                }
+                final int provider = providerIndex[consumedType];
+                if(provider < 0 || contains(deps, provider)) {
+                    continue;
+                }
+                final int[] tmp = new int[deps.length + 1];
+                System.arraycopy(deps, 0, tmp, 0, deps.length);
+                tmp[deps.length] = provider;
+                deps = tmp;
+            }
+            dependencies[i] = deps;
+            for(int providedType : phaseDescr.providedIds) {
+                if(providerIndex[providedType] < 0) {
+                    providerIndex[providedType] = i;
+                }
+                if(phaseDescr.streaming) {
+                    continue;
+                }
+                for(int supertype : outcomeTypes.supertypes(providedType)) {
+                    if(providerIndex[supertype] < 0) {
+                        providerIndex[supertype] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Type of the outcome produced by the plan. For plans producing
+     * outcomes of multiple types, the first of the types.
+     *
+     * @return  outcome type
+     */
+    public Class<?> getType() {
+        return types.get(0);
+    }
+
+    /**
+     * Types of the outcomes produced by the plan
+     *
+     * @return  outcome types
+     */
+    public List<Class<?>> getTypes() {
+        return types;
+    }
+
+    /**
+     * Types of the externally provided values the plan was resolved for
+     *
+     * @return  input types
+     */
+    public Set<Class<?>> getInputTypes() {
+        return inputTypes;
+    }
+
+    /**
+     * Handlers of the phases in the order they are processed
+     *
+     * @return  phase handlers
+     */
+    public List<PhaseHandler> getHandlers() {
+        final List<PhaseHandler> handlers = new ArrayList<>(phases.length);
+        for(PhaseDescription phaseDescr : phases) {
+            handlers.add(phaseDescr.handler);
+        }
+        return handlers;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("PhasePlan for ").append(types.get(0).getName());
+        for(int i = 1; i < types.size(); ++i) {
+            buf.append(", ").append(types.get(i).getName());
+        }
+        if(!inputTypes.isEmpty()) {
+            buf.append(" from ").append(inputTypes);
+        }
+        buf.append(':');
+        for(int i = 0; i < phases.length; ++i) {
+            buf.append(System.lineSeparator()).append(i).append(". ").append(phases[i].handler.getClass().getName());
+            if(dependencies[i].length > 0) {
+                buf.append(" after ").append(Arrays.toString(dependencies[i]));
+            }
+        }
+        return buf.toString();
+    }
+
+    private static boolean contains(int[] arr, int value) {
+        for(int i : arr) {
+            if(i == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
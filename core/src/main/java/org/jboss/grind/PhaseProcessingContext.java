@@ -17,6 +17,9 @@
 
 package org.jboss.grind;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
 /**
  * Phase processing context which allows a handle to consume
  * outcomes of previously processed phases and/or provide
@@ -56,6 +59,73 @@ public interface PhaseProcessingContext {
      */
     <T> T consume(Class<T> type) throws PhaseRouterException;
 
+    /**
+     * Consumes a streamed outcome (see {@link PhaseRegistration#providesStream(Class)}).
+     * The returned elements become available as the providing phase
+     * provides them and the iteration blocks until the next element is
+     * provided or the providing phase has been processed. A stream can be
+     * iterated only once. An outcome provided as a single value is
+     * returned as a stream of one element.
+     *
+     * <p>The default implementation consumes the outcome as a single value
+     * and returns it as a stream of one element.
+     *
+     * @param type  type of the stream elements
+     * @return  stream elements
+     * @throws PhaseRouterException  in case of a failure
+     */
+    default <T> Iterable<T> consumeStream(Class<T> type) throws PhaseRouterException {
+        return Collections.singletonList(consume(type));
+    }
+
+    /**
+     * Allocates a direct buffer, e.g. to be filled with binary data and provided
+     * with {@link #provideBuffer(Class, ByteBuffer)}. The buffer is allocated from
+     * the arena of the consume invocation, whose memory is reused by the following
+     * invocations once this one has completed, so the buffer must not be accessed
+     * after the invocation has returned.
+     *
+     * <p>The default implementation allocates a new direct buffer.
+     *
+     * @param capacity  capacity of the buffer in bytes
+     * @return  direct buffer
+     */
+    default ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Provides the remaining content of the buffer as a binary outcome
+     * of the specified type, which identifies the outcome the same way
+     * the type of any other outcome does. The buffer is not copied,
+     * so it must not be modified once provided.
+     *
+     * <p>The default implementation fails, since binary outcomes
+     * are not supported by the context.
+     *
+     * @param type  outcome type
+     * @param buffer  outcome content
+     * @throws PhaseRouterException  in case of a failure
+     */
+    default void provideBuffer(Class<?> type, ByteBuffer buffer) throws PhaseRouterException {
+        throw new PhaseRouterException("Binary outcomes are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Consumes a binary outcome provided with {@link #provideBuffer(Class, ByteBuffer)}
+     * as a read-only view of the provided buffer with its own position and limit.
+     *
+     * <p>The default implementation fails, since binary outcomes
+     * are not supported by the context.
+     *
+     * @param type  outcome type
+     * @return  read-only view of the outcome content
+     * @throws PhaseRouterException  in case of a failure
+     */
+    default ByteBuffer consumeBuffer(Class<?> type) throws PhaseRouterException {
+        throw new PhaseRouterException("Binary outcomes are not supported by " + getClass().getName());
+    }
+
     /**
      * Checks whether an outcome of specific type is available.
      *
@@ -63,4 +133,38 @@ public interface PhaseProcessingContext {
      * @return  true if the outcome is available, false if not
      */
     boolean isAvailable(Class<?> type);
+
+    /**
+     * Provides an outcome for consumption by other phase handlers
+     * using the key of its type.
+     *
+     * @param key  outcome type key
+     * @param value  outcome value
+     * @throws PhaseRouterException  in case of a failure
+     */
+    default <T> void provide(OutcomeKey<T> key, T value) throws PhaseRouterException {
+        provide(key.getType(), value);
+    }
+
+    /**
+     * Consumes an outcome of a previously processed phase
+     * using the key of its type.
+     *
+     * @param key  outcome type key
+     * @return  outcome value
+     * @throws PhaseRouterException  in case of a failure
+     */
+    default <T> T consume(OutcomeKey<T> key) throws PhaseRouterException {
+        return consume(key.getType());
+    }
+
+    /**
+     * Checks whether an outcome of the type with the specified key is available.
+     *
+     * @param key  outcome type key
+     * @return  true if the outcome is available, false if not
+     */
+    default boolean isAvailable(OutcomeKey<?> key) {
+        return isAvailable(key.getType());
+    }
 }
@@ -43,4 +43,74 @@ public interface PhaseRegistration {
      * @throws PhaseRouterException  in case of a failure
      */
     void provides(Class<?> outcomeType) throws PhaseRouterException;
+
+    /**
+     * Invoked by a phase handler to declare it provides an outcome
+     * of a specific type which can be cached across consume invocations
+     * according to the cache policy.
+     *
+     * <p>The processing of the phase is skipped when the cached outcomes
+     * are found only if all the outcome types the phase provides
+     * are declared cacheable.
+     *
+     * @param outcomeType  outcome type the handler provides
+     * @param cachePolicy  policy of caching the outcomes
+     * @throws PhaseRouterException  in case of a failure
+     */
+    void provides(Class<?> outcomeType, CachePolicy cachePolicy) throws PhaseRouterException;
+
+    /**
+     * Invoked by a phase handler to declare it provides a stream of outcomes
+     * of a specific type. The handler provides the elements of the stream
+     * by calling {@link PhaseProcessingContext#provide(Class, Object)}
+     * for each of them and the phases consuming the type iterate over
+     * the elements returned by {@link PhaseProcessingContext#consumeStream(Class)}
+     * while the elements are being provided.
+     *
+     * <p>An outcome type can't be provided both as a stream
+     * and as a single value. A stream can be iterated only once,
+     * so a streamed outcome type can be consumed by only one phase.
+     *
+     * @param outcomeType  type of the stream elements
+     * @throws PhaseRouterException  in case of a failure
+     */
+    void providesStream(Class<?> outcomeType) throws PhaseRouterException;
+
+    /**
+     * Returns the key of an outcome type, which allows the handler to consume
+     * and provide the outcomes of the type without class-keyed lookups
+     * (see {@link OutcomeKey}). The key is usually requested for the types
+     * the handler declared it consumes or provides.
+     *
+     * @param type  outcome type
+     * @return  key of the outcome type
+     * @throws PhaseRouterException  in case of a failure
+     */
+    <T> OutcomeKey<T> getKey(Class<T> type) throws PhaseRouterException;
+
+    /**
+     * Invoked by a phase handler to declare the estimated cost of processing
+     * the phase, expressed as its expected processing time in nanoseconds.
+     * When an outcome type has alternative providers, the one producing
+     * the outcome at the lowest total cost, including the costs of the phases
+     * it depends on, is chosen. The default cost is 0.
+     *
+     * @param cost  estimated processing time in nanoseconds
+     * @throws PhaseRouterException  in case the cost is negative
+     */
+    void setCost(long cost) throws PhaseRouterException;
+
+    /**
+     * Invoked by a phase handler to declare the version of its implementation,
+     * which allows the outcomes of the phase to be stored in a persistent cache
+     * (see {@link PhaseRouterFactory#setPersistentCache(PersistentOutcomeCache)})
+     * and reused across process restarts. The version has to change whenever
+     * the phase could produce different outcomes for the same consumed
+     * outcomes. The outcomes of phases that don't declare a version
+     * are never persisted.
+     *
+     * @param version  handler version
+     * @throws PhaseRouterException  in case of a failure
+     */
+    void setVersion(String version) throws PhaseRouterException;
 }
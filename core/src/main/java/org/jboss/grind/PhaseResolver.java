@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Resolves the chain of phases that have to be processed to produce
+ * an outcome of a specific type.
+ *
+ * <p>Before the chain is resolved, the resolver computes which outcome types
+ * are producible from the provided types and how expensive it is to produce
+ * each of them. The cost of a phase is its own cost (see
+ * {@link PhaseRegistration#setCost(long)}) plus the costs of the types it
+ * consumes and the cost of a type is the lowest cost of its providers,
+ * the provided types costing nothing. Along with the cost, every type and
+ * phase gets a level: a provided type is of level 0, a phase is one level
+ * above the highest level of the types it consumes and a type is of the level
+ * of its cheapest provider. The types are visited in the order of their
+ * cost and level, starting with the provided types, so each of them is
+ * visited only once.
+ *
+ * <p>Providers that can't be processed are never considered. Among the
+ * other providers of a type, the cheapest one is chosen, the first registered
+ * one in case of a tie, which is always the case when no phase declares a cost,
+ * unless it depends on a phase being resolved, i.e. would form a cycle.
+ * A provider already included in the chain is reused regardless of its cost.
+ * The cost of a phase whose outcomes are consumed by several phases of the
+ * chain is counted for each of them, which may overestimate the cost of the
+ * alternatives relying on shared phases.
+ *
+ * <p>A provider ordered by cost and level before all the phases being resolved
+ * can always be resolved without forming a cycle, since the types it consumes
+ * have providers ordered before it. Only the providers preferred to such
+ * a provider are resolved tentatively and discarded, if they form a cycle.
+ * A type that could not be resolved is not explored again for as long as
+ * the phases being resolved that it depends on stay the same, so the chain
+ * is resolved without exploring the providers that can't be processed and,
+ * in the common case, without backtracking at all.
+ *
+ * <p>In the polymorphic mode (see {@link OutcomeTypes}), the providers of
+ * a type include the providers of its registered subtypes, which follow
+ * the providers of the type itself, and a phase provides the registered
+ * supertypes of the types it provides as well.
+ *
+ * <p>The state of the resolution is kept in the resolver instance, which
+ * is created per resolution, so that the phase descriptions shared by
+ * the router are never modified and could be resolved concurrently.
+ *
+ * @author Alexey Loubyansky
+ */
+class PhaseResolver {
+
+    private static final int UNPRODUCIBLE = Integer.MAX_VALUE;
+
+    /**
+     * Type cost and level at the moment the entry was queued
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final int typeId;
+        final long cost;
+        final int level;
+
+        Entry(int typeId, long cost, int level) {
+            this.typeId = typeId;
+            this.cost = cost;
+            this.level = level;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return compare(cost, level, o.cost, o.level);
+        }
+    }
+
+    private final OutcomeTypes types;
+    /** Providers indexed by the outcome type id */
+    private final PhaseDescription[][] providers;
+    private final TypeSet providedTypes;
+    /** Costs of the phases indexed by the phase ids */
+    private final long[] phaseCosts;
+    /** Levels of the phases indexed by the phase ids */
+    private final int[] phaseLevels;
+    /** Whether the phases indexed by their ids have been added to the chain */
+    private final boolean[] inLine;
+    /** Depths of the phases being resolved indexed by the phase ids, -1 for the other phases */
+    private final int[] pathDepths;
+    /** Stamps of the phases being resolved indexed by their depths, unique for every resolved phase */
+    private final int[] pathStamps;
+    private int depth;
+    private int stamp;
+    /**
+     * Depths of the deepest phases being resolved the failed resolution of the types
+     * indexed by their ids depended on, {@link Integer#MAX_VALUE} for the types whose
+     * resolution hasn't failed, -1 for the types that depended on none of them
+     */
+    private final int[] failedDepths;
+    /** Stamps of the phases at the failed depths indexed by the type ids */
+    private final int[] failedStamps;
+    /** Failed depth of the type whose resolution failed last */
+    private int blockedDepth;
+
+    PhaseResolver(OutcomeTypes types, PhaseDescription[][] providers, PhaseDescription[][] consumers, PhaseDescription[] phases, long[] costs, TypeSet providedTypes) {
+        this.types = types;
+        this.providers = providers;
+        this.providedTypes = providedTypes;
+        this.inLine = new boolean[phases.length];
+        this.pathDepths = new int[phases.length];
+        Arrays.fill(pathDepths, -1);
+        this.pathStamps = new int[phases.length];
+        this.failedDepths = new int[providers.length];
+        Arrays.fill(failedDepths, Integer.MAX_VALUE);
+        this.failedStamps = new int[providers.length];
+        this.phaseCosts = costs.clone();
+        this.phaseLevels = new int[phases.length];
+        analyze(consumers, phases);
+    }
+
+    List<PhaseDescription> resolve(Class<?> type, int typeId) throws PhaseRouterException {
+        final List<PhaseDescription> chain = new ArrayList<>();
+        resolve(chain, type, typeId);
+        return chain;
+    }
+
+    /**
+     * Resolves a single chain producing outcomes of all the specified types,
+     * in which the phases needed for more than one of the types are included
+     * only once.
+     *
+     * @param types  outcome types
+     * @param typeIds  outcome type ids
+     * @return  phase chain
+     * @throws PhaseRouterException  in case the chain could not be resolved
+     */
+    List<PhaseDescription> resolve(Class<?>[] types, int[] typeIds) throws PhaseRouterException {
+        final List<PhaseDescription> chain = new ArrayList<>();
+        for(int i = 0; i < types.length; ++i) {
+            resolve(chain, types[i], typeIds[i]);
+        }
+        return chain;
+    }
+
+    private void resolve(List<PhaseDescription> chain, Class<?> type, int typeId) throws PhaseRouterException {
+        final PhaseDescription[] phases = typeId < 0 ? null : providers[typeId];
+        if(phases == null) {
+            throw new PhaseRouterException("No providers found for outcome type " + type.getName());
+        }
+        if(!resolveType(chain, typeId, Long.MAX_VALUE, UNPRODUCIBLE)) {
+            throw new PhaseRouterException("Failed to resolve phase flow for the outcome of type " + type.getName());
+        }
+    }
+
+    /**
+     * Makes sure the chain includes a provider of the type choosing the cheapest,
+     * and then the first registered, provider that doesn't form a cycle with the
+     * phases being resolved, all of which are ordered after the specified cost and level.
+     *
+     * @return  false, if every provider of the type forms a cycle with the phases being resolved,
+     *          in which case {@link #blockedDepth} is the depth of the deepest phase being resolved
+     *          it depends on
+     */
+    private boolean resolveType(List<PhaseDescription> chain, int typeId, long cost, int level) {
+        if(providedTypes.contains(typeId)) {
+            return true;
+        }
+        final PhaseDescription[] phases = providers[typeId];
+        if(phases == null) {
+            blockedDepth = -1;
+            return false;
+        }
+        for(PhaseDescription phaseDescr : phases) {
+            if(inLine[phaseDescr.id]) {
+                return true;
+            }
+        }
+        final int failedDepth = failedDepths[typeId];
+        if(failedDepth < 0 || failedDepth < depth && pathStamps[failedDepth] == failedStamps[typeId]) {
+            blockedDepth = failedDepth;
+            return false;
+        }
+        int blocked = -1;
+        final boolean[] tried = new boolean[phases.length];
+        while(true) {
+            int cheapest = -1;
+            for(int i = 0; i < phases.length; ++i) {
+                final PhaseDescription phaseDescr = phases[i];
+                if(tried[i] || phaseLevels[phaseDescr.id] == UNPRODUCIBLE) {
+                    continue;
+                }
+                if(pathDepths[phaseDescr.id] >= 0) {
+                    blocked = Math.max(blocked, pathDepths[phaseDescr.id]);
+                    tried[i] = true;
+                } else if(cheapest < 0 || phaseCosts[phaseDescr.id] < phaseCosts[phases[cheapest].id]) {
+                    cheapest = i;
+                }
+            }
+            if(cheapest < 0) {
+                failedDepths[typeId] = blocked;
+                failedStamps[typeId] = blocked < 0 ? 0 : pathStamps[blocked];
+                blockedDepth = blocked;
+                return false;
+            }
+            final PhaseDescription phaseDescr = phases[cheapest];
+            if(compare(phaseCosts[phaseDescr.id], phaseLevels[phaseDescr.id], cost, level) < 0) {
+                if(!resolvePhase(chain, phaseDescr, phaseCosts[phaseDescr.id], phaseLevels[phaseDescr.id])) {
+                    // can't happen, the types consumed by the phase have providers ordered before it
+                    throw new IllegalStateException("Failed to resolve the outcomes consumed by " + phaseDescr);
+                }
+                return true;
+            }
+            final int mark = chain.size();
+            if(resolvePhase(chain, phaseDescr, cost, level)) {
+                return true;
+            }
+            for(int i = chain.size() - 1; i >= mark; --i) {
+                inLine[chain.remove(i).id] = false;
+            }
+            blocked = Math.max(blocked, blockedDepth);
+            tried[cheapest] = true;
+        }
+    }
+
+    /**
+     * Resolves the types consumed by the phase and adds the phase to the chain.
+     *
+     * @return  false, if the phase forms a cycle with the phases being resolved
+     */
+    private boolean resolvePhase(List<PhaseDescription> chain, PhaseDescription phaseDescr, long cost, int level) {
+        pathDepths[phaseDescr.id] = depth;
+        pathStamps[depth++] = ++stamp;
+        try {
+            for(int consumedType : phaseDescr.consumedIds) {
+                if(!resolveType(chain, consumedType, cost, level)) {
+                    return false;
+                }
+            }
+        } finally {
+            pathDepths[phaseDescr.id] = -1;
+            --depth;
+        }
+        chain.add(phaseDescr);
+        inLine[phaseDescr.id] = true;
+        return true;
+    }
+
+    /**
+     * Computes the costs and the levels of the phases, visiting the types
+     * in the order of their costs and levels, starting with the provided types.
+     * The levels of the phases that can't be processed are set to {@link #UNPRODUCIBLE}.
+     */
+    private void analyze(PhaseDescription[][] consumers, PhaseDescription[] phases) {
+        // the number of consumed types whose cost is not known yet
+        final int[] pending = new int[phases.length];
+        final long[] typeCosts = new long[consumers.length];
+        Arrays.fill(typeCosts, Long.MAX_VALUE);
+        final int[] typeLevels = new int[consumers.length];
+        Arrays.fill(typeLevels, UNPRODUCIBLE);
+        final boolean[] visited = new boolean[consumers.length];
+        final PriorityQueue<Entry> queue = new PriorityQueue<>();
+        for(int typeId : providedTypes.ids()) {
+            if(typeId < typeLevels.length) {
+                typeCosts[typeId] = 0;
+                typeLevels[typeId] = 0;
+                queue.add(new Entry(typeId, 0, 0));
+            }
+        }
+        for(PhaseDescription phaseDescr : phases) {
+            if(phaseDescr == null) {
+                continue;
+            }
+            phaseLevels[phaseDescr.id] = 1;
+            pending[phaseDescr.id] = phaseDescr.consumedIds.length;
+            if(pending[phaseDescr.id] == 0) {
+                ready(phaseDescr, typeCosts, typeLevels, queue);
+            }
+        }
+        Entry entry;
+        while((entry = queue.poll()) != null) {
+            final int typeId = entry.typeId;
+            if(visited[typeId] || entry.cost != typeCosts[typeId] || entry.level != typeLevels[typeId]) {
+                continue;
+            }
+            visited[typeId] = true;
+            for(PhaseDescription phaseDescr : consumers[typeId]) {
+                final long cost = phaseCosts[phaseDescr.id] + typeCosts[typeId];
+                phaseCosts[phaseDescr.id] = cost < 0 ? Long.MAX_VALUE : cost;
+                phaseLevels[phaseDescr.id] = Math.max(phaseLevels[phaseDescr.id], typeLevels[typeId] + 1);
+                if(--pending[phaseDescr.id] == 0) {
+                    ready(phaseDescr, typeCosts, typeLevels, queue);
+                }
+            }
+        }
+        for(PhaseDescription phaseDescr : phases) {
+            if(phaseDescr != null && pending[phaseDescr.id] > 0) {
+                phaseLevels[phaseDescr.id] = UNPRODUCIBLE;
+            }
+        }
+    }
+
+    /**
+     * Offers the types provided by a phase whose consumed types have all been visited.
+     */
+    private void ready(PhaseDescription phaseDescr, long[] typeCosts, int[] typeLevels, PriorityQueue<Entry> queue) {
+        final long cost = phaseCosts[phaseDescr.id];
+        final int level = phaseLevels[phaseDescr.id];
+        for(int providedType : phaseDescr.providedIds) {
+            offer(providedType, cost, level, typeCosts, typeLevels, queue);
+            if(!phaseDescr.streaming) {
+                for(int supertype : types.supertypes(providedType)) {
+                    offer(supertype, cost, level, typeCosts, typeLevels, queue);
+                }
+            }
+        }
+    }
+
+    private static void offer(int typeId, long cost, int level, long[] typeCosts, int[] typeLevels, PriorityQueue<Entry> queue) {
+        if(compare(cost, level, typeCosts[typeId], typeLevels[typeId]) < 0) {
+            typeCosts[typeId] = cost;
+            typeLevels[typeId] = level;
+            queue.add(new Entry(typeId, cost, level));
+        }
+    }
+
+    private static int compare(long cost1, int level1, long cost2, int level2) {
+        final int result = Long.compare(cost1, cost2);
+        return result == 0 ? Integer.compare(level1, level2) : result;
+    }
+}
@@ -14,63 +14,351 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.jboss.grind;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Includes a set of phase handlers, allows to provide additional input
  * and consume outcomes of specific types by resolving the phases and the
  * order in which they have to be processed to produce the requested outcome.
  *
+ * <p>A built router can be shared by multiple threads. The phase chain
+ * resolution does not modify the registered phase descriptions and
+ * the values passed to {@link #consume(Class, Object...)} are visible only
+ * to the phases processed for that invocation.
+ *
+ * <p>In the lazy mode (see {@link PhaseRouterFactory#setLazy(boolean)})
+ * the phases of a plan are processed only when their outcomes are
+ * actually consumed.
+ *
+ * <p>In the incremental mode (see {@link PhaseRouterFactory#setIncremental(boolean)})
+ * the outcomes consumed with {@link #consume(Class)} are retained by
+ * the router and reused by the following invocations until a value
+ * they depend on is replaced.
+ *
  * @author Alexey Loubyansky
  */
 public class PhaseRouter {
 
-    private class Context implements PhaseProcessingContext {
+    /**
+     * Daemon threads shared by all the routers without an executor to
+     * process the phases providing streamed outcomes. Idle threads are
+     * reused by the following invocations instead of starting a new
+     * thread for every streaming phase.
+     */
+    private static final Executor STREAM_PRODUCERS = Executors.newCachedThreadPool(task -> {
+        final Thread thread = new Thread(task, "grind-stream-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Values provided to the router and the plans resolved for them.
+     * Replaced (never modified) on every provide.
+     */
+    private static final class Inputs {
+        /** Values indexed by the outcome type ids */
+        final Object[] slots;
+        /** Values of the types unknown to the registered handlers */
+        final Map<Class<?>, Object> other;
+        final TypeSet types;
+        /** Plans indexed by the outcome type ids */
+        final AtomicReferenceArray<PhasePlan> plans;
+
+        Inputs(Object[] slots, Map<Class<?>, Object> other, TypeSet types, AtomicReferenceArray<PhasePlan> plans) {
+            this.slots = slots;
+            this.other = other;
+            this.types = types;
+            this.plans = plans;
+        }
+    }
+
+    /**
+     * Context processing the phases of a plan only when (and if)
+     * their outcomes are consumed, starting from the outcomes of the plan.
+     */
+    private final class LazyContext extends ProcessingContext {
 
-        private final Map<Class<?>, Object> provided;
+        private static final byte PROCESSING = 1;
+        private static final byte PROCESSED = 2;
 
-        private Context(Map<Class<?>, Object> provided) {
-            this.provided = new HashMap<>(provided);
+        private PhasePlan plan;
+        /** States of the phases indexed by their indexes in the plan */
+        private byte[] states;
+
+        LazyContext(Inputs inputs) {
+            super(types, inputs.slots, inputs.other, false);
+        }
+
+        void process(PhasePlan plan) throws PhaseRouterException {
+            this.plan = plan;
+            states = new byte[plan.phases.length];
+            for(int typeId : plan.typeIds) {
+                produce(typeId);
+            }
         }
 
         @Override
-        public <O> void provide(Class<O> type, O value) throws PhaseRouterException {
-            if(provided.put(type, value) != null) {
-                // let's for now be strict about it
-                throw new PhaseRouterException("Outcome of type " + type.getName() + " has already been provided");
+        public boolean isAvailable(Class<?> type) {
+            return super.isAvailable(type) || isProducible(types.id(type));
+        }
+
+        @Override
+        public boolean isAvailable(OutcomeKey<?> key) {
+            return super.isAvailable(key) || isProducible(key.id);
+        }
+
+        @Override
+        <O> O get(int id, Class<O> type) throws PhaseRouterException {
+            if(id >= 0 && slots[id] == null) {
+                produce(id);
             }
+            return super.get(id, type);
         }
 
-        @SuppressWarnings("unchecked")
         @Override
-        public <O> O consume(Class<O> type) throws PhaseRouterException {
-            final Object value = provided.get(type);
-            if(value == null) {
-                throw new PhaseRouterException("Failed to resolve outcome of type " + type);
+        public <O> Iterable<O> consumeStream(Class<O> type) throws PhaseRouterException {
+            final int id = types.id(type);
+            if(id >= 0 && slots[id] == null) {
+                produce(id);
             }
-            return (O) value;
+            return super.consumeStream(type);
         }
 
         @Override
-        public boolean isAvailable(Class<?> type) {
-            return provided.containsKey(type);
+        public ByteBuffer consumeBuffer(Class<?> type) throws PhaseRouterException {
+            final int id = types.id(type);
+            if(id >= 0 && slots[id] == null) {
+                produce(id);
+            }
+            return super.consumeBuffer(type);
+        }
+
+        /**
+         * Produces the outcomes consumed by the phase, so that its cached
+         * outcomes are looked up by the actual values of its inputs.
+         */
+        void produceConsumed(PhaseDescription phaseDescr) throws PhaseRouterException {
+            for(int consumedType : phaseDescr.consumedIds) {
+                produce(consumedType);
+            }
+        }
+
+        private boolean isProducible(int id) {
+            if(id < 0 || plan == null) {
+                return false;
+            }
+            final int i = plan.providerIndex[id];
+            return i >= 0 && states[i] != PROCESSED;
+        }
+
+        private void produce(int id) throws PhaseRouterException {
+            if(plan == null || slots[id] != null) {
+                return;
+            }
+            final int i = plan.providerIndex[id];
+            if(i < 0 || states[i] == PROCESSED) {
+                return;
+            }
+            if(states[i] == PROCESSING) {
+                throw new PhaseRouterException("Outcome of type " + types.type(id).getName() + " is consumed by the phase providing it " + plan.phases[i].handler);
+            }
+            states[i] = PROCESSING;
+            PhaseRouter.this.process(plan.phases[i], this);
+            states[i] = PROCESSED;
         }
     }
 
-    private final Map<Class<?>, List<PhaseDescription>> providers;
-    private Map<Class<?>, Object> provided = Collections.emptyMap();
-    private boolean checkHandlerOutcome;
+    /** Plan snapshot header, "GRND" */
+    private static final int PLANS_MAGIC = 0x47524e44;
+    private static final int PLANS_VERSION = 1;
+
+    private final OutcomeTypes types;
+    /** Phases indexed by their ids */
+    private final PhaseDescription[] phases;
+    /** Providers indexed by the outcome type ids */
+    private final PhaseDescription[][] providers;
+    private final Executor executor;
+    private final PhaseListener listener;
+    private final boolean lazy;
+    private final int streamBufferSize;
+    /** Phases consuming the outcomes indexed by the type ids */
+    private final PhaseDescription[][] consumers;
+    /**
+     * Retained outcomes produced by the phases indexed by the type ids,
+     * null unless the router is incremental. Guarded by this router.
+     */
+    private final Object[] outcomes;
+    /** Outcome caches indexed by the phase ids or null, if no phase caches its outcomes */
+    private final OutcomeCache[] caches;
+    /** Costs of the phases indexed by the phase ids, replaced as a whole when updated */
+    private volatile long[] costs;
+    private final PersistentOutcomeCache persistentCache;
+    /** Whether the outcomes of the phases indexed by their ids are cached persistently or null, if none is */
+    private final boolean[] persisted;
+    /** Pool of the buffer arena chunks or null, if buffers are not pooled */
+    private final BufferArena.Pool bufferPool;
+    /** Processing contexts reused by the consume invocations per thread or null, if contexts are not pooled */
+    private final ThreadLocal<ProcessingContext> contexts;
+    private volatile Inputs inputs;
+    private volatile boolean checkHandlerOutcome;
+
+    /**
+     * Resolved plans per set of externally provided types and then per
+     * requested outcome type id. The handler graph is frozen once the router
+     * is built, so a plan resolved once can be reused for as long as
+     * the set of provided types stays the same.
+     */
+    private final ConcurrentMap<TypeSet, AtomicReferenceArray<PhasePlan>> planCache = new ConcurrentHashMap<>();
+    private final LongAdder planCacheHits = new LongAdder();
+    private final LongAdder planCacheMisses = new LongAdder();
+    /**
+     * Plans producing outcomes of multiple types per set of externally
+     * provided types and then per list of requested outcome types.
+     */
+    private final ConcurrentMap<TypeSet, ConcurrentMap<List<Class<?>>, PhasePlan>> mergedPlanCache = new ConcurrentHashMap<>();
 
     protected PhaseRouter(PhaseRouterFactory factory) {
-        providers = Collections.unmodifiableMap(factory.providers);
+        types = new OutcomeTypes(factory.keys, factory.polymorphic,
+                OutcomeStore.newInstance(factory.keys, factory.serializers, factory.spillThreshold, factory.spillDirectory));
+        providers = new PhaseDescription[types.size()][];
+        for(Map.Entry<Class<?>, List<PhaseDescription>> entry : factory.providers.entrySet()) {
+            final List<PhaseDescription> phases = entry.getValue();
+            providers[types.id(entry.getKey())] = phases.toArray(new PhaseDescription[phases.size()]);
+        }
+        if(types.isPolymorphic()) {
+            // the providers of the subtypes follow the providers of the type itself
+            final PhaseDescription[][] exactProviders = providers.clone();
+            for(int id = 0; id < exactProviders.length; ++id) {
+                if(exactProviders[id] == null) {
+                    continue;
+                }
+                for(int supertype : types.supertypes(id)) {
+                    for(PhaseDescription phaseDescr : exactProviders[id]) {
+                        if(phaseDescr.streaming) {
+                            continue;
+                        }
+                        final PhaseDescription[] phases = providers[supertype];
+                        if(phases == null) {
+                            providers[supertype] = new PhaseDescription[] {phaseDescr};
+                        } else if(!Arrays.asList(phases).contains(phaseDescr)) {
+                            providers[supertype] = Arrays.copyOf(phases, phases.length + 1);
+                            providers[supertype][phases.length] = phaseDescr;
+                        }
+                    }
+                }
+            }
+        }
+        phases = new PhaseDescription[factory.phasesTotal + 1];
+        costs = new long[phases.length];
+        for(PhaseDescription phaseDescr : factory.phases) {
+            phases[phaseDescr.id] = phaseDescr;
+            costs[phaseDescr.id] = phaseDescr.cost;
+        }
+        executor = factory.executor;
+        listener = factory.listener;
+        lazy = factory.lazy;
+        streamBufferSize = factory.streamBufferSize;
+        final List<List<PhaseDescription>> tmp = new ArrayList<>(types.size());
+        for(int i = 0; i < types.size(); ++i) {
+            tmp.add(new ArrayList<>(1));
+        }
+        for(PhaseDescription phaseDescr : factory.phases) {
+            for(int consumedType : phaseDescr.consumedIds) {
+                tmp.get(consumedType).add(phaseDescr);
+            }
+        }
+        consumers = new PhaseDescription[types.size()][];
+        for(int i = 0; i < consumers.length; ++i) {
+            final List<PhaseDescription> phases = tmp.get(i);
+            consumers[i] = phases.toArray(new PhaseDescription[phases.size()]);
+        }
+        outcomes = factory.incremental ? new Object[types.size()] : null;
+        OutcomeCache[] caches = null;
+        for(PhaseDescription phaseDescr : factory.phases) {
+            final CachePolicy cachePolicy = phaseDescr.getCachePolicy();
+            if(cachePolicy != null) {
+                if(caches == null) {
+                    caches = new OutcomeCache[phases.length];
+                }
+                caches[phaseDescr.id] = new OutcomeCache(phaseDescr, cachePolicy);
+            }
+        }
+        this.caches = caches;
+        persistentCache = factory.persistentCache;
+        boolean[] persisted = null;
+        if(persistentCache != null && types.store != null) {
+            for(PhaseDescription phaseDescr : factory.phases) {
+                if(isPersistable(phaseDescr)) {
+                    if(persisted == null) {
+                        persisted = new boolean[phases.length];
+                    }
+                    persisted[phaseDescr.id] = true;
+                }
+            }
+        }
+        this.persisted = persisted;
+        bufferPool = factory.bufferChunkSize == 0 ? null
+                : new BufferArena.Pool(factory.bufferChunkSize, Runtime.getRuntime().availableProcessors() * 2);
+        if(factory.pooledContexts && !lazy) {
+            contexts = ThreadLocal.withInitial(() -> {
+                final ProcessingContext ctx = new ProcessingContext(types, new Object[types.size()], Collections.emptyMap(), executor != null);
+                ctx.bufferPool = bufferPool;
+                return ctx;
+            });
+        } else {
+            contexts = null;
+        }
         checkHandlerOutcome = factory.checkHandlerOutcome;
+        inputs = new Inputs(new Object[types.size()], Collections.emptyMap(), TypeSet.EMPTY, getPlans(TypeSet.EMPTY));
+    }
+
+    /**
+     * Whether the phase declared a version and all of its outcome types have serializers
+     */
+    private boolean isPersistable(PhaseDescription phaseDescr) {
+        if(phaseDescr.version == null || phaseDescr.streaming) {
+            return false;
+        }
+        for(int consumedType : phaseDescr.consumedIds) {
+            if(types.store.serializer(consumedType) == null) {
+                return false;
+            }
+        }
+        for(int providedType : phaseDescr.providedIds) {
+            if(types.store.serializer(providedType) == null) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -96,15 +384,46 @@ public class PhaseRouter {
 
     /**
      * Provides a value that can be consumed by phase handlers.
+     *
+     * <p>In the incremental mode the value replaces the previously provided
+     * value of the same type, if any, and the retained outcomes that
+     * depend on it are discarded.
      */
-    public <T> void provide(Class<T> type, T value) throws PhaseRouterException {
-        if(provided.isEmpty()) {
-            provided = new HashMap<>(provided);
-        }
-        if(provided.put(type, value) != null) {
+    public synchronized <T> void provide(Class<T> type, T value) throws PhaseRouterException {
+        final Inputs inputs = this.inputs;
+        final int id = types.exactId(type);
+        final int[] supertypes = types.supertypes(type);
+        Map<Class<?>, Object> other = inputs.other;
+        if(id < 0) {
+            if(outcomes == null && other.containsKey(type)) {
+                // let's for now be strict about it
+                throw new PhaseRouterException("Outcome of type " + type.getName() + " has already been provided");
+            }
+            other = new HashMap<>(other);
+            other.put(type, value);
+            if(supertypes.length == 0) {
+                this.inputs = new Inputs(inputs.slots, other, inputs.types, inputs.plans);
+                return;
+            }
+        } else if(outcomes != null) {
+            invalidate(id);
+        } else if(inputs.slots[id] != null) {
             // let's for now be strict about it
             throw new PhaseRouterException("Outcome of type " + type.getName() + " has already been provided");
         }
+        final Object[] slots = inputs.slots.clone();
+        TypeSet providedTypes = inputs.types;
+        if(id >= 0) {
+            slots[id] = value;
+            providedTypes = providedTypes.with(id);
+        }
+        for(int supertype : supertypes) {
+            if(slots[supertype] == null) {
+                slots[supertype] = value;
+                providedTypes = providedTypes.with(supertype);
+            }
+        }
+        this.inputs = new Inputs(slots, other, providedTypes, getPlans(providedTypes));
     }
 
     /**
@@ -112,114 +431,1092 @@ public class PhaseRouter {
      */
     @SuppressWarnings("unchecked")
     public <T> T consume(Class<T> type) throws PhaseRouterException {
-        final Object value = this.provided.get(type);
+        final Inputs inputs = this.inputs;
+        final int id = types.id(type);
+        final Object value = id < 0 ? inputs.other.get(type) : inputs.slots[id];
         if(value != null) {
             return (T) value;
         }
-        final List<PhaseDescription> phaseChain = resolvePhaseChain(type);
-        final Context ctx = new Context(provided);
-        for(PhaseDescription phaseDescr : phaseChain) {
-            phaseDescr.handler.process(ctx);
-            if(checkHandlerOutcome && !phaseDescr.providedTypes.isEmpty()) {
-                List<Class<?>> missingTypes = null;
-                for(Class<?> providedType : phaseDescr.providedTypes) {
-                    if(!ctx.isAvailable(providedType)) {
-                        if(missingTypes == null) {
-                            missingTypes = new ArrayList<>(1);
+        if(outcomes != null) {
+            return consumeIncrementally(type, id);
+        }
+        final PhasePlan plan = getPlan(type, id, inputs.types, inputs.plans);
+        final ProcessingContext ctx = acquireContext(inputs);
+        try {
+            process(plan, ctx);
+            final T outcome = ctx.get(id, type);
+            releaseContext(ctx);
+            return outcome;
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            discardContext(ctx, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Provides certain values and consumes a value of the specified type
+     * by processing the necessary phases.
+     *
+     * <p>The provided values are visible only to the phases processed
+     * for this invocation, i.e. they are not added to the router.
+     * Incremental routers don't support provided values.
+     *
+     * @param type  type of the consumed outcome
+     * @param provided  provided values
+     * @return  outcome
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public <T> T consume(Class<T> type, Object... provided) throws PhaseRouterException {
+        if(provided.length == 0) {
+            return consume(type);
+        }
+        if(outcomes != null) {
+            throw new PhaseRouterException("Incremental routers don't support values provided for a single invocation");
+        }
+        final Inputs inputs = this.inputs;
+        final ProcessingContext ctx = acquireContext(inputs);
+        try {
+            final TypeSet providedTypes = provide(ctx, inputs.types, provided);
+            final int id = types.id(type);
+            if(!ctx.isAvailable(type)) {
+                process(getPlan(type, id, providedTypes, getPlans(providedTypes)), ctx);
+            }
+            final T outcome = ctx.get(id, type);
+            releaseContext(ctx);
+            return outcome;
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            discardContext(ctx, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Consumes a binary outcome (see {@link PhaseProcessingContext#provideBuffer(Class, ByteBuffer)})
+     * of the specified type, optionally providing certain values for the invocation only,
+     * the same way {@link #consume(Class, Object...)} does. The outcome is passed to the reader
+     * as a read-only view, which is valid only until the reader returns, since the memory
+     * of the buffers allocated by the phases is reused once the invocation has completed.
+     * Binary outcomes are not supported by incremental routers.
+     *
+     * @param type  type of the consumed outcome
+     * @param reader  function reading the outcome
+     * @param provided  provided values
+     * @return  value returned by the reader
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public <R> R consumeBuffer(Class<?> type, Function<ByteBuffer, R> reader, Object... provided) throws PhaseRouterException {
+        if(outcomes != null) {
+            throw new PhaseRouterException("Incremental routers don't support binary outcomes");
+        }
+        final Inputs inputs = this.inputs;
+        final ProcessingContext ctx = acquireContext(inputs);
+        try {
+            final TypeSet providedTypes = provided.length == 0 ? inputs.types : provide(ctx, inputs.types, provided);
+            final int id = types.id(type);
+            if(!ctx.isAvailable(type)) {
+                process(getPlan(type, id, providedTypes, provided.length == 0 ? inputs.plans : getPlans(providedTypes)), ctx);
+            }
+            final R result = reader.apply(ctx.consumeBuffer(type));
+            releaseContext(ctx);
+            return result;
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            discardContext(ctx, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Consumes a value of the specified type, optionally providing certain
+     * values for the invocation only, the same way {@link #consume(Class, Object...)}
+     * does, recording the plan and the processing of the phases.
+     * Tracing is not supported by incremental routers.
+     *
+     * @param type  type of the consumed outcome
+     * @param provided  provided values
+     * @return  trace including the outcome
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public <T> PhaseTrace<T> consumeTraced(Class<T> type, Object... provided) throws PhaseRouterException {
+        if(outcomes != null) {
+            throw new PhaseRouterException("Incremental routers don't support tracing");
+        }
+        final PhaseTrace<T> trace = new PhaseTrace<>(type);
+        final Inputs inputs = this.inputs;
+        final ProcessingContext ctx = acquireContext(inputs);
+        ctx.trace = trace;
+        try {
+            final TypeSet providedTypes = provided.length == 0 ? inputs.types : provide(ctx, inputs.types, provided);
+            final int id = types.id(type);
+            PhasePlan plan = null;
+            long resolutionNanos = 0;
+            if(!ctx.isAvailable(type)) {
+                final long startNanos = System.nanoTime();
+                plan = getPlan(type, id, providedTypes, provided.length == 0 ? inputs.plans : getPlans(providedTypes));
+                resolutionNanos = System.nanoTime() - startNanos;
+                process(plan, ctx);
+            }
+            trace.complete(plan, resolutionNanos, ctx.get(id, type), providers);
+            releaseContext(ctx);
+            return trace;
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            discardContext(ctx, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Consumes values of the specified types by processing a single plan
+     * producing all of them, in which the phases needed for more than
+     * one of the types are processed only once.
+     * Consuming multiple types at once is not supported by incremental routers.
+     *
+     * @param types  types of the consumed outcomes
+     * @return  outcomes
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public Outcomes consumeAll(Class<?>... types) throws PhaseRouterException {
+        if(outcomes != null) {
+            throw new PhaseRouterException("Incremental routers don't support consuming multiple outcome types at once");
+        }
+        final Inputs inputs = this.inputs;
+        final ProcessingContext ctx = newContext(inputs);
+        int pending = 0;
+        for(Class<?> type : types) {
+            if(!ctx.isAvailable(type)) {
+                ++pending;
+            }
+        }
+        if(pending == 0) {
+            return new Outcomes(ctx);
+        }
+        final Class<?>[] targets;
+        if(pending == types.length) {
+            targets = types;
+        } else {
+            targets = new Class<?>[pending];
+            pending = 0;
+            for(Class<?> type : types) {
+                if(!ctx.isAvailable(type)) {
+                    targets[pending++] = type;
+                }
+            }
+        }
+        process(getPlan(targets, inputs.types), ctx);
+        return new Outcomes(ctx);
+    }
+
+    /**
+     * Consumes values of the specified type for multiple sets of provided
+     * values. The plan is resolved once for all the sets providing values
+     * of the same types and the phases are processed one after another for
+     * all the sets in the batch, so that handlers implementing
+     * {@link BatchPhaseHandler} are invoked once per phase with the contexts
+     * of all the sets.
+     *
+     * <p>The provided values are visible only to the phases processed
+     * for the same set, i.e. they are not added to the router.
+     * Batch consumption is not supported by incremental routers.
+     *
+     * @param type  type of the consumed outcome
+     * @param provided  sets of provided values
+     * @return  outcomes in the order of the provided value sets
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public <T> List<T> consumeBatch(Class<T> type, List<Object[]> provided) throws PhaseRouterException {
+        if(outcomes != null) {
+            throw new PhaseRouterException("Incremental routers don't support batch consumption");
+        }
+        final Inputs inputs = this.inputs;
+        final int id = types.id(type);
+        final ProcessingContext[] contexts = new ProcessingContext[provided.size()];
+        final Map<TypeSet, List<ProcessingContext>> batches = new LinkedHashMap<>(1);
+        for(int i = 0; i < contexts.length; ++i) {
+            final ProcessingContext ctx = new ProcessingContext(types, inputs.slots, inputs.other, false);
+            ctx.bufferPool = bufferPool;
+            final TypeSet providedTypes = provide(ctx, inputs.types, provided.get(i));
+            contexts[i] = ctx;
+            if(ctx.isAvailable(type)) {
+                continue;
+            }
+            List<ProcessingContext> batch = batches.get(providedTypes);
+            if(batch == null) {
+                batch = new ArrayList<>(contexts.length);
+                batches.put(providedTypes, batch);
+            }
+            batch.add(ctx);
+        }
+        final List<T> outcomes = new ArrayList<>(contexts.length);
+        try {
+            for(Map.Entry<TypeSet, List<ProcessingContext>> batch : batches.entrySet()) {
+                final PhasePlan plan = getPlan(type, id, batch.getKey(), getPlans(batch.getKey()));
+                for(PhaseDescription phaseDescr : plan.phases) {
+                    if(phaseDescr.handler instanceof BatchPhaseHandler && !phaseDescr.streaming) {
+                        processBatch(phaseDescr, batch.getValue());
+                    } else {
+                        for(ProcessingContext ctx : batch.getValue()) {
+                            process(phaseDescr, ctx);
                         }
-                        missingTypes.add(providedType);
                     }
                 }
-                if(missingTypes != null) {
-                    throw new PhaseRouterException(Errors.handlerNotProvidedOutcomes(phaseDescr.handler, missingTypes));
-                }
             }
+            for(ProcessingContext ctx : contexts) {
+                awaitStreams(ctx);
+                outcomes.add(ctx.get(id, type));
+            }
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            for(ProcessingContext ctx : contexts) {
+                ctx.abortStreams(e);
+            }
+            throw e;
+        }
+        for(ProcessingContext ctx : contexts) {
+            ctx.releaseBuffers();
         }
-        return ctx.consume(type);
+        return outcomes;
+    }
+
+    /**
+     * Consumes a value of the specified type by processing the necessary phases
+     * without blocking the calling thread on the phases implementing
+     * {@link AsyncPhaseHandler}. Phases implementing {@link PhaseHandler} only
+     * are processed using the executor, if one was configured, or by the thread
+     * that completed the processing of the phases they depend on.
+     * Asynchronous consumption is not supported by incremental routers,
+     * the returned stage fails with a {@link PhaseRouterException}.
+     *
+     * @param type  type of the consumed outcome
+     * @return  stage completing with the outcome
+     */
+    public <T> CompletionStage<T> consumeAsync(Class<T> type) {
+        return consumeAsync(type, new Object[0]);
     }
 
     /**
      * Provides certain values and consumes a value of the specified type
-     * by processing the necessary phases
+     * without blocking the calling thread on the phases implementing
+     * {@link AsyncPhaseHandler}.
+     *
+     * <p>The provided values are visible only to the phases processed
+     * for this invocation, i.e. they are not added to the router.
+     * Asynchronous consumption is not supported by incremental routers.
      *
      * @param type  type of the consumed outcome
      * @param provided  provided values
-     * @return  outcome
-     * @throws PhaseRouterException  in case of a failure
+     * @return  stage completing with the outcome
      */
-    public <T> T consume(Class<T> type, Object... provided) throws PhaseRouterException {
-        if(provided.length > 0) {
-            for(Object o : provided) {
-                provide(o);
+    public <T> CompletionStage<T> consumeAsync(Class<T> type, Object... provided) {
+        try {
+            if(outcomes != null) {
+                throw new PhaseRouterException("Incremental routers don't support asynchronous consumption");
+            }
+            final Inputs inputs = this.inputs;
+            final ProcessingContext ctx = new ProcessingContext(types, inputs.slots, inputs.other, true);
+            final TypeSet providedTypes = provide(ctx, inputs.types, provided);
+            final int id = types.id(type);
+            if(ctx.isAvailable(type)) {
+                return CompletableFuture.completedFuture(ctx.get(id, type));
             }
+            ctx.bufferPool = bufferPool;
+            final PhasePlan plan = getPlan(type, id, providedTypes, provided.length == 0 ? inputs.plans : getPlans(providedTypes));
+            return schedule(plan, ctx, true).whenComplete((v, error) -> {
+                if(error != null) {
+                    ctx.abortStreams(error);
+                }
+            }).thenCompose(v -> {
+                final CompletableFuture<Void> streamed = ctx.completeStreams();
+                return streamed == null ? CompletableFuture.completedFuture(null) : streamed;
+            }).thenApply(v -> {
+                try {
+                    final T outcome = ctx.get(id, type);
+                    ctx.releaseBuffers();
+                    return outcome;
+                } catch (PhaseRouterException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch(PhaseRouterException e) {
+            final CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
-        return consume(type);
     }
 
     public boolean isAvailable(Class<?> type) {
-        return provided.containsKey(type);
+        final Inputs inputs = this.inputs;
+        final int id = types.id(type);
+        return id < 0 ? inputs.other.containsKey(type) : inputs.slots[id] != null;
+    }
+
+    /**
+     * Returns the plan producing an outcome of the specified type
+     * from the values provided to the router, resolving it,
+     * if it has not been resolved yet.
+     *
+     * @param type  outcome type
+     * @return  plan producing the outcome
+     * @throws PhaseRouterException  in case the plan could not be resolved
+     */
+    public PhasePlan getPlan(Class<?> type) throws PhaseRouterException {
+        final Inputs inputs = this.inputs;
+        final int id = types.id(type);
+        PhasePlan plan = id < 0 ? null : inputs.plans.get(id);
+        if(plan == null) {
+            plan = resolvePlan(type, id, inputs.types);
+            inputs.plans.compareAndSet(id, null, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the plan producing an outcome of the specified type
+     * from values of the specified types, resolving it, if it has not
+     * been resolved yet. The values provided to the router are ignored.
+     *
+     * @param type  outcome type
+     * @param inputTypes  types of the values the outcome should be produced from
+     * @return  plan producing the outcome
+     * @throws PhaseRouterException  in case the plan could not be resolved
+     */
+    public PhasePlan getPlan(Class<?> type, Class<?>... inputTypes) throws PhaseRouterException {
+        TypeSet providedTypes = TypeSet.EMPTY;
+        for(Class<?> inputType : inputTypes) {
+            final int id = types.exactId(inputType);
+            if(id >= 0) {
+                providedTypes = providedTypes.with(id);
+            }
+            for(int supertype : types.supertypes(inputType)) {
+                providedTypes = providedTypes.with(supertype);
+            }
+        }
+        final int id = types.id(type);
+        final AtomicReferenceArray<PhasePlan> plans = getPlans(providedTypes);
+        PhasePlan plan = id < 0 ? null : plans.get(id);
+        if(plan == null) {
+            plan = resolvePlan(type, id, providedTypes);
+            plans.compareAndSet(id, null, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Writes the plans resolved so far in a compact binary form, which can
+     * be imported with {@link #importPlans(InputStream)} into a router
+     * built with the same phase handlers, e.g. to avoid resolving
+     * the plans after a restart. The stream is flushed but not closed.
+     *
+     * @param os  output stream
+     * @return  the number of exported plans
+     * @throws IOException  in case of a failure to write the plans
+     */
+    public int exportPlans(OutputStream os) throws IOException {
+        final List<TypeSet> inputTypes = new ArrayList<>();
+        final List<PhasePlan> plans = new ArrayList<>();
+        for(Map.Entry<TypeSet, AtomicReferenceArray<PhasePlan>> entry : planCache.entrySet()) {
+            for(int i = 0; i < entry.getValue().length(); ++i) {
+                final PhasePlan plan = entry.getValue().get(i);
+                if(plan != null) {
+                    inputTypes.add(entry.getKey());
+                    plans.add(plan);
+                }
+            }
+        }
+        for(Map.Entry<TypeSet, ConcurrentMap<List<Class<?>>, PhasePlan>> entry : mergedPlanCache.entrySet()) {
+            for(PhasePlan plan : entry.getValue().values()) {
+                inputTypes.add(entry.getKey());
+                plans.add(plan);
+            }
+        }
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(PLANS_MAGIC);
+        out.writeShort(PLANS_VERSION);
+        out.writeLong(fingerprint());
+        out.writeInt(plans.size());
+        for(int i = 0; i < plans.size(); ++i) {
+            final PhasePlan plan = plans.get(i);
+            writeIds(out, inputTypes.get(i).ids());
+            writeIds(out, plan.typeIds);
+            out.writeInt(plan.phases.length);
+            for(PhaseDescription phaseDescr : plan.phases) {
+                out.writeInt(phaseDescr.id);
+            }
+        }
+        out.flush();
+        return plans.size();
     }
 
-    private <T> List<PhaseDescription> resolvePhaseChain(Class<T> type) throws PhaseRouterException {
-        final List<PhaseDescription> phases = providers.get(type);
-        if(phases == null) {
-            throw new PhaseRouterException("No providers found for outcome type " + type.getName());
+    /**
+     * Imports the plans exported with {@link #exportPlans(OutputStream)}.
+     * The plans are accepted only if they were exported by a router
+     * with the same phase handlers consuming and providing the same
+     * outcome types at the same declared costs, since the costs determine
+     * the chosen providers. Already resolved plans are not replaced.
+     *
+     * @param is  input stream
+     * @return  the number of imported plans
+     * @throws IOException  in case of a failure to read the plans
+     * @throws PhaseRouterException  in case the plans don't match the phase handlers
+     */
+    public int importPlans(InputStream is) throws IOException, PhaseRouterException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if(in.readInt() != PLANS_MAGIC) {
+            throw new PhaseRouterException("Not a plan snapshot");
+        }
+        final int version = in.readUnsignedShort();
+        if(version != PLANS_VERSION) {
+            throw new PhaseRouterException("Unsupported plan snapshot version " + version);
+        }
+        if(in.readLong() != fingerprint()) {
+            throw new PhaseRouterException("The plans were exported by a router with different phase handlers");
+        }
+        final int total = in.readInt();
+        for(int i = 0; i < total; ++i) {
+            TypeSet inputTypes = TypeSet.EMPTY;
+            for(int id : readIds(in)) {
+                inputTypes = inputTypes.with(id);
+            }
+            final int[] targetIds = readIds(in);
+            final OutcomeKey<?>[] targets = new OutcomeKey<?>[targetIds.length];
+            for(int j = 0; j < targetIds.length; ++j) {
+                targets[j] = types.keys[targetIds[j]];
+            }
+            final int chainLength = in.readInt();
+            if(chainLength < 0 || chainLength >= phases.length) {
+                throw new PhaseRouterException("Corrupted plan snapshot: invalid number of phases " + chainLength);
+            }
+            final List<PhaseDescription> chain = new ArrayList<>(chainLength);
+            for(int j = 0; j < chainLength; ++j) {
+                final int phaseId = in.readInt();
+                if(phaseId < 0 || phaseId >= phases.length || phases[phaseId] == null) {
+                    throw new PhaseRouterException("Corrupted plan snapshot: unknown phase id " + phaseId);
+                }
+                chain.add(phases[phaseId]);
+            }
+            final PhasePlan plan = new PhasePlan(targets, inputTypes, types, chain);
+            if(targets.length == 1) {
+                getPlans(inputTypes).compareAndSet(targetIds[0], null, plan);
+            } else {
+                getMergedPlans(inputTypes).putIfAbsent(plan.getTypes(), plan);
+            }
         }
-        List<PhaseDescription> chain = new ArrayList<>();
+        return total;
+    }
+
+    /**
+     * Updates the costs of the phases (see {@link PhaseRegistration#setCost(long)})
+     * with their mean processing times collected by the metrics and discards
+     * the resolved plans, so that the following consume invocations choose
+     * among the alternative providers according to the observed latency.
+     * The phases that have not been processed yet keep their declared costs.
+     * Imported plans are discarded as well.
+     *
+     * @param metrics  metrics collected while processing the phases of this router
+     */
+    public void updateCosts(PhaseMetrics metrics) {
+        final long[] costs = new long[phases.length];
         for(PhaseDescription phaseDescr : phases) {
-            resolvePhaseChain(chain, phaseDescr);
+            if(phaseDescr == null) {
+                continue;
+            }
+            final PhaseMetrics.Stats stats = metrics.getStats(phaseDescr.handler);
+            costs[phaseDescr.id] = stats == null || stats.getInvocations() == 0 ? phaseDescr.cost : stats.getMeanNanos();
         }
-        if(chain.isEmpty()) {
-            throw new PhaseRouterException("Failed to resolve phase flow for the outcome of type " + type.getName());
+        this.costs = costs;
+        // the plan arrays are referenced by the inputs, so they are cleared instead of being removed
+        for(AtomicReferenceArray<PhasePlan> plans : planCache.values()) {
+            for(int i = 0; i < plans.length(); ++i) {
+                plans.set(i, null);
+            }
+        }
+        for(ConcurrentMap<List<Class<?>>, PhasePlan> plans : mergedPlanCache.values()) {
+            plans.clear();
         }
-        return chain;
     }
 
-    private boolean resolvePhaseChain(List<PhaseDescription> chain, PhaseDescription phaseDescr) throws PhaseRouterException {
-        if(!phaseDescr.setFlag(PhaseDescription.VISITED)) {
-            return false;
+    /**
+     * The number of times a consumed outcome was produced using
+     * a previously resolved phase chain
+     *
+     * @return  plan cache hits
+     */
+    public long getPlanCacheHits() {
+        return planCacheHits.sum();
+    }
+
+    /**
+     * The number of times a phase chain had to be resolved
+     * to produce a consumed outcome
+     *
+     * @return  plan cache misses
+     */
+    public long getPlanCacheMisses() {
+        return planCacheMisses.sum();
+    }
+
+    void compile(Class<?> type, Set<Class<?>> inputTypes) throws PhaseRouterException {
+        getPlan(type, inputTypes.toArray(new Class<?>[inputTypes.size()]));
+    }
+
+    private PhasePlan getPlan(Class<?> type, int id, TypeSet providedTypes, AtomicReferenceArray<PhasePlan> plans) throws PhaseRouterException {
+        PhasePlan plan = id < 0 ? null : plans.get(id);
+        if(plan == null) {
+            planCacheMisses.increment();
+            plan = resolvePlan(type, id, providedTypes);
+            plans.compareAndSet(id, null, plan);
+        } else {
+            planCacheHits.increment();
         }
-        try {
-            if (!phaseDescr.consumedTypes.isEmpty()) {
-                for (Class<?> consumedType : phaseDescr.consumedTypes) {
-                    if (provided.containsKey(consumedType)) {
-                        continue;
-                    }
-                    final List<PhaseDescription> phases = providers.get(consumedType);
-                    if (phases == null) {
-                        return false;
+        return plan;
+    }
+
+    private PhasePlan getPlan(Class<?>[] targets, TypeSet providedTypes) throws PhaseRouterException {
+        if(targets.length == 1) {
+            final Class<?> type = targets[0];
+            final int id = types.id(type);
+            return getPlan(type, id, providedTypes, getPlans(providedTypes));
+        }
+        final ConcurrentMap<List<Class<?>>, PhasePlan> plans = getMergedPlans(providedTypes);
+        final List<Class<?>> key = Arrays.asList(targets);
+        PhasePlan plan = plans.get(key);
+        if(plan == null) {
+            planCacheMisses.increment();
+            plan = resolvePlan(targets, providedTypes);
+            final PhasePlan existing = plans.putIfAbsent(key, plan);
+            if(existing != null) {
+                plan = existing;
+            }
+        } else {
+            planCacheHits.increment();
+        }
+        return plan;
+    }
+
+    private PhasePlan resolvePlan(Class<?>[] targets, TypeSet providedTypes) throws PhaseRouterException {
+        final long startNanos = listener == null ? 0 : System.nanoTime();
+        final int[] ids = new int[targets.length];
+        for(int i = 0; i < targets.length; ++i) {
+            ids[i] = types.id(targets[i]);
+        }
+        final List<PhaseDescription> chain = new PhaseResolver(types, providers, consumers, phases, costs, providedTypes).resolve(targets, ids);
+        final OutcomeKey<?>[] keys = new OutcomeKey<?>[ids.length];
+        for(int i = 0; i < ids.length; ++i) {
+            keys[i] = types.keys[ids[i]];
+        }
+        final PhasePlan plan = new PhasePlan(keys, providedTypes, types, chain);
+        if(listener != null) {
+            listener.planResolved(plan, System.nanoTime() - startNanos);
+        }
+        return plan;
+    }
+
+    private PhasePlan resolvePlan(Class<?> type, int id, TypeSet providedTypes) throws PhaseRouterException {
+        final long startNanos = listener == null ? 0 : System.nanoTime();
+        final List<PhaseDescription> chain = new PhaseResolver(types, providers, consumers, phases, costs, providedTypes).resolve(type, id);
+        final PhasePlan plan = new PhasePlan(new OutcomeKey<?>[] {types.keys[id]}, providedTypes, types, chain);
+        if(listener != null) {
+            listener.planResolved(plan, System.nanoTime() - startNanos);
+        }
+        return plan;
+    }
+
+    /**
+     * Processes the phases of the plan whose outcomes haven't been retained
+     * and retains the outcomes they produce.
+     */
+    private synchronized <T> T consumeIncrementally(Class<T> type, int id) throws PhaseRouterException {
+        final Inputs inputs = this.inputs;
+        final ProcessingContext ctx = new ProcessingContext(types, inputs.slots, inputs.other, false);
+        for(int i = 0; i < outcomes.length; ++i) {
+            if(outcomes[i] != null) {
+                ctx.slots[i] = outcomes[i];
+            }
+        }
+        if(id < 0 || ctx.slots[id] == null) {
+            final PhasePlan plan = getPlan(type, id, inputs.types, inputs.plans);
+            for(PhaseDescription phaseDescr : plan.phases) {
+                boolean retained = true;
+                for(int providedType : phaseDescr.providedIds) {
+                    if(ctx.slots[providedType] == null) {
+                        retained = false;
+                        break;
                     }
-                    boolean provided = false;
-                    for (PhaseDescription provider : phases) {
-                        if (provided = provider.isFlagOn(PhaseDescription.IN_LINE)) {
-                            break;
-                        }
+                }
+                if(retained) {
+                    continue;
+                }
+                for(int providedType : phaseDescr.providedIds) {
+                    ctx.slots[providedType] = null;
+                }
+                process(phaseDescr, ctx);
+            }
+            awaitStreams(ctx);
+            for(int i = 0; i < outcomes.length; ++i) {
+                // consumed streams can't be reused
+                if(!inputs.types.contains(i) && !types.keys[i].streamed) {
+                    outcomes[i] = ctx.slots[i];
+                }
+            }
+        }
+        return ctx.get(id, type);
+    }
+
+    /**
+     * Discards the retained outcome of the type and the retained outcomes
+     * of the phases that transitively depend on it.
+     */
+    private void invalidate(int id) {
+        final boolean[] visited = new boolean[outcomes.length];
+        final int[] queue = new int[outcomes.length];
+        int size = 0;
+        visited[id] = true;
+        queue[size++] = id;
+        for(int i = 0; i < size; ++i) {
+            final int typeId = queue[i];
+            outcomes[typeId] = null;
+            for(PhaseDescription phaseDescr : consumers[typeId]) {
+                for(int providedType : phaseDescr.providedIds) {
+                    if(!visited[providedType]) {
+                        visited[providedType] = true;
+                        queue[size++] = providedType;
                     }
-                    if (provided) {
-                        continue;
+                }
+            }
+        }
+    }
+
+    private ProcessingContext newContext(Inputs inputs) {
+        return lazy ? new LazyContext(inputs) : new ProcessingContext(types, inputs.slots, inputs.other, executor != null);
+    }
+
+    /**
+     * Returns the pooled context of the calling thread or a new context,
+     * if contexts are not pooled or the pooled one is being used by an outer
+     * invocation, i.e. a handler consumes outcomes from the same router.
+     */
+    private ProcessingContext acquireContext(Inputs inputs) {
+        if(contexts != null) {
+            final ProcessingContext ctx = contexts.get();
+            if(!ctx.inUse) {
+                ctx.reset(inputs.slots, inputs.other);
+                return ctx;
+            }
+        }
+        final ProcessingContext ctx = newContext(inputs);
+        ctx.bufferPool = bufferPool;
+        return ctx;
+    }
+
+    /**
+     * Returns a context to the pool once the invocation has completed successfully
+     */
+    private void releaseContext(ProcessingContext ctx) {
+        if(ctx.inUse) {
+            ctx.clear();
+        } else {
+            ctx.releaseBuffers();
+        }
+    }
+
+    /**
+     * Aborts the streams of the context after a failure and removes it from
+     * the pool, if it was pooled, since phases providing streamed outcomes
+     * may still be using it.
+     */
+    private void discardContext(ProcessingContext ctx, Throwable failure) {
+        ctx.abortStreams(failure);
+        if(ctx.inUse) {
+            contexts.remove();
+        }
+    }
+
+    private void process(PhasePlan plan, ProcessingContext ctx) throws PhaseRouterException {
+        try {
+            if(lazy) {
+                ((LazyContext) ctx).process(plan);
+            } else if(executor == null) {
+                for(PhaseDescription phaseDescr : plan.phases) {
+                    process(phaseDescr, ctx);
+                }
+            } else {
+                try {
+                    schedule(plan, ctx, false).join();
+                } catch(CompletionException | CancellationException e) {
+                    throw propagate(e);
+                }
+            }
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            ctx.abortStreams(e);
+            throw e;
+        }
+        awaitStreams(ctx);
+    }
+
+    /**
+     * Waits for the phases providing streamed outcomes to be processed
+     */
+    private void awaitStreams(ProcessingContext ctx) throws PhaseRouterException {
+        final CompletableFuture<Void> streamed = ctx.completeStreams();
+        if(streamed != null) {
+            try {
+                streamed.join();
+            } catch(CompletionException | CancellationException e) {
+                throw propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the phases of the plan starting each phase as soon as
+     * the phases it depends on have been processed. Phases are processed using
+     * the executor, if one was configured, otherwise by the thread completing
+     * the processing of the phases they depend on.
+     *
+     * @param plan  plan to process
+     * @param ctx  processing context
+     * @param async  whether asynchronous handlers should be invoked asynchronously
+     * @return  future completing when all the phases have been processed
+     */
+    private CompletableFuture<Void> schedule(PhasePlan plan, ProcessingContext ctx, boolean async) {
+        final CompletableFuture<Void> start = CompletableFuture.completedFuture(null);
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Void>[] processed = (CompletableFuture<Void>[]) new CompletableFuture<?>[plan.phases.length];
+        for(int i = 0; i < plan.phases.length; ++i) {
+            final int[] deps = plan.dependencies[i];
+            final CompletableFuture<Void> ready;
+            if(deps.length == 0) {
+                ready = start;
+            } else if(deps.length == 1) {
+                ready = processed[deps[0]];
+            } else {
+                final CompletableFuture<?>[] depsProcessed = new CompletableFuture<?>[deps.length];
+                for(int j = 0; j < deps.length; ++j) {
+                    depsProcessed[j] = processed[deps[j]];
+                }
+                ready = CompletableFuture.allOf(depsProcessed);
+            }
+            final PhaseDescription phaseDescr = plan.phases[i];
+            if(async && !phaseDescr.streaming && phaseDescr.handler instanceof AsyncPhaseHandler) {
+                final AsyncPhaseHandler handler = (AsyncPhaseHandler) phaseDescr.handler;
+                final OutcomeCache cache = caches == null ? null : caches[phaseDescr.id];
+                final long[] startNanos = new long[1];
+                final CompletableFuture<Void> phaseProcessed = ready.thenCompose(v -> {
+                    if(listener != null) {
+                        startNanos[0] = System.nanoTime();
                     }
-                    final int originalChainLength = chain.size();
-                    for (PhaseDescription provider : phases) {
-                        if (provided = resolvePhaseChain(chain, provider)) {
-                            break;
+                    try {
+                        if(cache == null) {
+                            return handler.processAsync(ctx);
                         }
-                        if (chain.size() > originalChainLength) {
-                            for (int i = chain.size() - 1; i >= originalChainLength; --i) {
-                                chain.remove(i).clearFlag(PhaseDescription.IN_LINE);
-                            }
+                        if(cache.restore(ctx)) {
+                            return CompletableFuture.completedFuture(null);
                         }
+                        return handler.processAsync(ctx).thenRun(() -> cache.store(ctx));
+                    } catch (PhaseRouterException e) {
+                        throw new CompletionException(e);
+                    }
+                }).thenRun(() -> {
+                    try {
+                        checkOutcome(phaseDescr, ctx);
+                    } catch (PhaseRouterException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+                processed[i] = listener == null ? phaseProcessed : phaseProcessed.whenComplete((v, error) -> {
+                    // the phase was not started if one of its dependencies failed
+                    if(startNanos[0] == 0) {
+                        return;
                     }
-                    if (provided) {
-                        continue;
+                    final long duration = System.nanoTime() - startNanos[0];
+                    if(error == null) {
+                        listener.phaseProcessed(phaseDescr, startNanos[0], duration);
+                    } else {
+                        listener.phaseFailed(phaseDescr, startNanos[0], duration, error instanceof CompletionException ? error.getCause() : error);
                     }
-                    return false;
+                });
+                continue;
+            }
+            final Runnable task = () -> {
+                try {
+                    process(phaseDescr, ctx);
+                } catch (PhaseRouterException e) {
+                    throw new CompletionException(e);
+                }
+            };
+            processed[i] = executor == null ? ready.thenRun(task) : ready.thenRunAsync(task, executor);
+        }
+        return CompletableFuture.allOf(processed);
+    }
+
+    private void process(PhaseDescription phaseDescr, ProcessingContext ctx) throws PhaseRouterException {
+        if(phaseDescr.streaming) {
+            startProducer(phaseDescr, ctx);
+        } else {
+            processPhase(phaseDescr, ctx);
+        }
+    }
+
+    /**
+     * Adds the streams provided by the phase to the context and starts
+     * processing the phase using the executor or a shared daemon thread, so that
+     * the phases consuming the streams can be processed while the phase
+     * is providing the elements.
+     */
+    private void startProducer(PhaseDescription phaseDescr, ProcessingContext ctx) throws PhaseRouterException {
+        final List<OutcomeStream<?>> streams = new ArrayList<>(phaseDescr.providedIds.length);
+        for(int providedType : phaseDescr.providedIds) {
+            final OutcomeStream<?> stream = new OutcomeStream<>(types.type(providedType), streamBufferSize);
+            ctx.put(providedType, types.type(providedType), stream);
+            streams.add(stream);
+        }
+        final CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            try {
+                processPhase(phaseDescr, ctx);
+            } catch (PhaseRouterException e) {
+                throw new CompletionException(e);
+            }
+        }, executor == null ? STREAM_PRODUCERS : executor);
+        ctx.addProducer(streams, producer.whenComplete((v, error) -> {
+            for(OutcomeStream<?> stream : streams) {
+                if(error == null) {
+                    stream.close();
+                } else {
+                    stream.abort(error instanceof CompletionException ? error.getCause() : error);
                 }
             }
-        } finally {
-            phaseDescr.clearFlag(PhaseDescription.VISITED);
+        }));
+    }
+
+    private void processPhase(PhaseDescription phaseDescr, ProcessingContext ctx) throws PhaseRouterException {
+        final PhaseTrace<?> trace = ctx.trace;
+        if(listener == null && trace == null) {
+            invoke(phaseDescr, ctx);
+            return;
         }
-        chain.add(phaseDescr);
-        phaseDescr.setFlag(PhaseDescription.IN_LINE);
-        return true;
+        final long startNanos = System.nanoTime();
+        try {
+            invoke(phaseDescr, ctx);
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            final long durationNanos = System.nanoTime() - startNanos;
+            if(listener != null) {
+                listener.phaseFailed(phaseDescr, startNanos, durationNanos, e);
+            }
+            throw e;
+        }
+        final long durationNanos = System.nanoTime() - startNanos;
+        if(listener != null) {
+            listener.phaseProcessed(phaseDescr, startNanos, durationNanos);
+        }
+        if(trace != null) {
+            trace.phaseProcessed(phaseDescr, startNanos, durationNanos, ctx);
+        }
+    }
+
+    private void processBatch(PhaseDescription phaseDescr, List<ProcessingContext> batch) throws PhaseRouterException {
+        final OutcomeCache cache = caches == null ? null : caches[phaseDescr.id];
+        if(cache != null) {
+            final List<ProcessingContext> uncached = new ArrayList<>(batch.size());
+            for(ProcessingContext ctx : batch) {
+                if(!cache.restore(ctx)) {
+                    uncached.add(ctx);
+                }
+            }
+            if(uncached.isEmpty()) {
+                return;
+            }
+            batch = uncached;
+        }
+        final long startNanos = listener == null ? 0 : System.nanoTime();
+        try {
+            ((BatchPhaseHandler) phaseDescr.handler).processBatch(Collections.unmodifiableList(batch));
+            for(ProcessingContext ctx : batch) {
+                if(cache != null) {
+                    cache.store(ctx);
+                }
+                checkOutcome(phaseDescr, ctx);
+            }
+        } catch(PhaseRouterException | RuntimeException | Error e) {
+            if(listener != null) {
+                listener.phaseFailed(phaseDescr, startNanos, System.nanoTime() - startNanos, e);
+            }
+            throw e;
+        }
+        if(listener != null) {
+            listener.phaseProcessed(phaseDescr, startNanos, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Invokes the handler of the phase, unless the outcomes of the phase
+     * are found in its cache, and checks the outcome. In the lazy mode
+     * the outcomes consumed by a cached phase are produced before the
+     * cache is looked up.
+     */
+    private void invoke(PhaseDescription phaseDescr, ProcessingContext ctx) throws PhaseRouterException {
+        final OutcomeCache cache = caches == null ? null : caches[phaseDescr.id];
+        if(lazy && (cache != null || persisted != null && persisted[phaseDescr.id])) {
+            ((LazyContext) ctx).produceConsumed(phaseDescr);
+        }
+        if(cache != null && cache.restore(ctx)) {
+            return;
+        }
+        if(persisted != null && persisted[phaseDescr.id]) {
+            final String key = persistentCache.key(phaseDescr, ctx, types.store);
+            if(!persistentCache.restore(key, phaseDescr, ctx, types.store)) {
+                phaseDescr.handler.process(ctx);
+                persistentCache.store(key, phaseDescr, ctx, types.store);
+            }
+        } else {
+            phaseDescr.handler.process(ctx);
+        }
+        if(cache != null) {
+            cache.store(ctx);
+        }
+        checkOutcome(phaseDescr, ctx);
+    }
+
+    private void checkOutcome(PhaseDescription phaseDescr, ProcessingContext ctx) throws PhaseRouterException {
+        if(checkHandlerOutcome && phaseDescr.providedIds.length > 0) {
+            List<Class<?>> missingTypes = null;
+            for(int providedType : phaseDescr.providedIds) {
+                if(ctx.slots[providedType] == null) {
+                    if(missingTypes == null) {
+                        missingTypes = new ArrayList<>(1);
+                    }
+                    missingTypes.add(types.type(providedType));
+                }
+            }
+            if(missingTypes != null) {
+                throw new PhaseRouterException(Errors.handlerNotProvidedOutcomes(phaseDescr.handler, missingTypes));
+            }
+        }
+    }
+
+    /**
+     * Adds the values to the context
+     *
+     * @return  the provided types extended with the types of the values
+     */
+    private TypeSet provide(ProcessingContext ctx, TypeSet providedTypes, Object... values) throws PhaseRouterException {
+        for(Object value : values) {
+            final Class<?> type = value.getClass();
+            final int id = types.exactId(type);
+            ctx.put(id, type, value);
+            if(id >= 0) {
+                providedTypes = providedTypes.with(id);
+            }
+            for(int supertype : types.supertypes(type)) {
+                if(ctx.slots[supertype] == value) {
+                    providedTypes = providedTypes.with(supertype);
+                }
+            }
+        }
+        return providedTypes;
+    }
+
+    /**
+     * Hash of the registered phase handlers, the outcome types
+     * they consume and provide and their declared costs
+     * in the registration order.
+     */
+    private long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        if(types.isPolymorphic()) {
+            hash = hash(hash, "polymorphic");
+        }
+        for(int i = 1; i < phases.length; ++i) {
+            final PhaseDescription phaseDescr = phases[i];
+            hash = hash(hash, phaseDescr.handler.getClass().getName());
+            for(int consumedType : phaseDescr.consumedIds) {
+                hash = hash(hash, "<" + types.type(consumedType).getName());
+            }
+            for(int providedType : phaseDescr.providedIds) {
+                hash = hash(hash, ">" + types.type(providedType).getName());
+            }
+            hash = hash(hash, "$" + phaseDescr.cost);
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a
+     */
+    private static long hash(long hash, String str) {
+        for(byte b : str.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        // terminating zero byte
+        return hash * 0x100000001b3L;
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for(int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    private int[] readIds(DataInputStream in) throws IOException, PhaseRouterException {
+        final int size = in.readInt();
+        if(size < 0 || size > types.size()) {
+            throw new PhaseRouterException("Corrupted plan snapshot: invalid number of outcome types " + size);
+        }
+        final int[] ids = new int[size];
+        for(int i = 0; i < ids.length; ++i) {
+            ids[i] = in.readInt();
+            if(ids[i] < 0 || ids[i] >= types.size()) {
+                throw new PhaseRouterException("Corrupted plan snapshot: unknown outcome type id " + ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the failure of a stage as a phase router exception or rethrows it,
+     * if it is a runtime exception or an error, so that handler failures surface
+     * the same way regardless of whether the phases were processed asynchronously.
+     * Cancelled stages are reported as phase router exceptions.
+     *
+     * @param e  completion or cancellation exception thrown by the stage
+     * @return  phase router exception
+     */
+    static PhaseRouterException propagate(RuntimeException e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if(cause instanceof PhaseRouterException) {
+            return (PhaseRouterException) cause;
+        }
+        if(cause instanceof CancellationException) {
+            return new PhaseRouterException("Phase processing was cancelled", cause);
+        }
+        if(cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if(cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new PhaseRouterException(cause);
+    }
+
+    private ConcurrentMap<List<Class<?>>, PhasePlan> getMergedPlans(TypeSet providedTypes) {
+        ConcurrentMap<List<Class<?>>, PhasePlan> plans = mergedPlanCache.get(providedTypes);
+        if(plans == null) {
+            plans = new ConcurrentHashMap<>();
+            final ConcurrentMap<List<Class<?>>, PhasePlan> existing = mergedPlanCache.putIfAbsent(providedTypes, plans);
+            if(existing != null) {
+                plans = existing;
+            }
+        }
+        return plans;
+    }
+
+    private AtomicReferenceArray<PhasePlan> getPlans(TypeSet providedTypes) {
+        AtomicReferenceArray<PhasePlan> plans = planCache.get(providedTypes);
+        if(plans == null) {
+            plans = new AtomicReferenceArray<>(types.size());
+            final AtomicReferenceArray<PhasePlan> existing = planCache.putIfAbsent(providedTypes, plans);
+            if(existing != null) {
+                plans = existing;
+            }
+        }
+        return plans;
     }
 }
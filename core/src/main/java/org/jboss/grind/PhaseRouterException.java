@@ -35,4 +35,8 @@ public class PhaseRouterException extends Exception {
     public PhaseRouterException(Throwable cause) {
         super(cause);
     }
+
+    public PhaseRouterException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
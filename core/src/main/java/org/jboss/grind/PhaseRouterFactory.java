@@ -17,11 +17,17 @@
 
 package org.jboss.grind;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Phase router factory.
@@ -41,22 +47,49 @@ public class PhaseRouterFactory {
 
     private class Registration implements PhaseRegistration {
 
-        private int phasesTotal;
         PhaseDescription phaseDescr;
 
         void register(PhaseHandler handler) throws PhaseRouterException {
             this.phaseDescr = new PhaseDescription(++phasesTotal, handler);
             handler.register(this);
+            if(phaseDescr.streaming) {
+                for(Class<?> providedType : phaseDescr.providedTypes) {
+                    if(!keys.get(providedType).streamed) {
+                        throw new PhaseRouterException("Phase " + handler + " providing streamed outcomes can't provide single value outcomes");
+                    }
+                }
+            }
+            phases.add(phaseDescr);
         }
 
         @Override
         public void consumes(Class<?> type) throws PhaseRouterException {
-            phaseDescr.addConsumedType(type);
+            phaseDescr.addConsumedType(getKey(type));
         }
 
         @Override
         public void provides(Class<?> type) throws PhaseRouterException {
-            phaseDescr.addProvidedType(type);
+            final OutcomeKey<?> key = getKey(type);
+            if(key.streamed) {
+                throw new PhaseRouterException("Outcome of type " + type.getName() + " is provided as a stream");
+            }
+            addProvider(key);
+        }
+
+        @Override
+        public void providesStream(Class<?> type) throws PhaseRouterException {
+            final OutcomeKey<?> key = getKey(type);
+            if(!key.streamed && providers.containsKey(type)) {
+                throw new PhaseRouterException("Outcome of type " + type.getName() + " is provided as a single value");
+            }
+            key.streamed = true;
+            phaseDescr.streaming = true;
+            addProvider(key);
+        }
+
+        private void addProvider(OutcomeKey<?> key) {
+            final Class<?> type = key.getType();
+            phaseDescr.addProvidedType(key);
             List<PhaseDescription> typeProviders = providers.get(type);
             if(typeProviders == null) {
                 providers.put(type, Collections.singletonList(phaseDescr));
@@ -70,11 +103,68 @@ public class PhaseRouterFactory {
             }
             typeProviders.add(phaseDescr);
         }
+
+        @Override
+        public void provides(Class<?> type, CachePolicy cachePolicy) throws PhaseRouterException {
+            provides(type);
+            phaseDescr.setCachePolicy(getKey(type), cachePolicy);
+        }
+
+        @Override
+        public void setCost(long cost) throws PhaseRouterException {
+            if(cost < 0) {
+                throw new PhaseRouterException("Phase cost can't be negative: " + cost);
+            }
+            phaseDescr.cost = cost;
+        }
+
+        @Override
+        public void setVersion(String version) throws PhaseRouterException {
+            if(version == null) {
+                throw new PhaseRouterException("Phase version can't be null");
+            }
+            phaseDescr.version = version;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> OutcomeKey<T> getKey(Class<T> type) {
+            OutcomeKey<T> key = (OutcomeKey<T>) keys.get(type);
+            if(key == null) {
+                key = new OutcomeKey<>(type, keys.size());
+                keys.put(type, key);
+            }
+            return key;
+        }
     }
 
+    /** Default maximum number of buffered stream elements */
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 256;
+    /** Default minimum size in bytes of the outcomes spilled to disk */
+    public static final long DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+    /** Default size in bytes of the chunks buffers are allocated from */
+    public static final int DEFAULT_BUFFER_CHUNK_SIZE = 1024 * 1024;
+
     private Registration registration = new Registration();
     Map<Class<?>, List<PhaseDescription>> providers = new HashMap<>();
+    Map<Class<?>, OutcomeKey<?>> keys = new HashMap<>();
+    List<PhaseDescription> phases = new ArrayList<>();
+    int phasesTotal;
     boolean checkHandlerOutcome = false;
+    Executor executor;
+    PhaseListener listener;
+    boolean lazy;
+    boolean incremental;
+    boolean polymorphic;
+    int streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+    Map<Class<?>, OutcomeSerializer<?>> serializers = new HashMap<>();
+    long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    Path spillDirectory;
+    int bufferChunkSize = DEFAULT_BUFFER_CHUNK_SIZE;
+    boolean pooledContexts;
+    PersistentOutcomeCache persistentCache;
+    Set<Class<?>> compiledTypes = Collections.emptySet();
+    Set<Class<?>> inputTypes = Collections.emptySet();
 
     private PhaseRouterFactory() {
     }
@@ -91,6 +181,257 @@ public class PhaseRouterFactory {
         return this;
     }
 
+    /**
+     * Executor that should be used to process the phases that don't
+     * depend on each other's outcomes concurrently. If the executor is
+     * not set (the default), the phases are processed sequentially by
+     * the thread consuming the outcome.
+     *
+     * @param executor  executor to process the phases with
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Whether the phases should be processed only when their outcomes
+     * are actually consumed. In the lazy mode a phase of a resolved plan
+     * is processed the first time one of its outcomes is consumed, so
+     * the phases providing the outcomes that are checked with
+     * {@link PhaseProcessingContext#isAvailable(Class)} but never consumed
+     * are not processed at all. Lazily processed phases are processed
+     * by the thread consuming the outcome, so the lazy mode
+     * can't be combined with an executor. Batch and asynchronous
+     * consumption always process all the phases of a plan. The outcomes
+     * consumed by a phase whose outcomes are cached are produced before
+     * the phase is processed, since they are the key of the cache.
+     *
+     * @param lazy  whether phases should be processed lazily
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setLazy(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    /**
+     * Whether the router should retain the outcomes produced for
+     * {@link PhaseRouter#consume(Class)} and reuse them in the following
+     * invocations. In the incremental mode values provided to the router
+     * with {@link PhaseRouter#provide(Class, Object)} may be replaced,
+     * in which case only the retained outcomes of the phases that
+     * transitively consume the replaced value are discarded and
+     * produced again when consumed next time. Incremental consumption is
+     * serialized and the phases are processed by the consuming thread.
+     * Outcomes are retained only by {@link PhaseRouter#consume(Class)}, so
+     * incremental routers reject the other ways of consuming outcomes:
+     * values provided for a single invocation, {@link PhaseRouter#consumeAll(Class...)},
+     * {@link PhaseRouter#consumeBatch(Class, List)},
+     * {@link PhaseRouter#consumeAsync(Class, Object...)},
+     * {@link PhaseRouter#consumeBuffer(Class, java.util.function.Function, Object...)}
+     * and {@link PhaseRouter#consumeTraced(Class, Object...)} fail with
+     * a {@link PhaseRouterException}.
+     *
+     * @param incremental  whether the router should be incremental
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Whether outcomes should be matched to the consumed types polymorphically.
+     * In the polymorphic mode, an outcome is also available as each of the
+     * outcome types registered by the handlers it is assignable to, unless
+     * an outcome of such a type has already been provided, so a phase
+     * consuming an interface can be satisfied by a phase providing one of its
+     * implementations. An outcome of a type not registered by any handler is
+     * consumed as the outcome of the first registered subtype of it.
+     * Streamed outcomes are matched only to their exact types.
+     * The default is to match the exact types only.
+     *
+     * @param polymorphic  whether outcomes should be matched polymorphically
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setPolymorphic(boolean polymorphic) {
+        this.polymorphic = polymorphic;
+        return this;
+    }
+
+    /**
+     * Maximum number of elements of a streamed outcome (see
+     * {@link PhaseRegistration#providesStream(Class)}) buffered before
+     * the providing phase blocks waiting for the consuming phase
+     * to take them. The default is {@link #DEFAULT_STREAM_BUFFER_SIZE}.
+     *
+     * @param streamBufferSize  stream buffer size
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setStreamBufferSize(int streamBufferSize) {
+        if(streamBufferSize < 1) {
+            throw new IllegalArgumentException("Stream buffer size has to be positive: " + streamBufferSize);
+        }
+        this.streamBufferSize = streamBufferSize;
+        return this;
+    }
+
+    /**
+     * Serializer of the outcomes of the specified type. Outcomes of the type
+     * provided by phase handlers, whose size estimated by the serializer
+     * reaches the spill threshold (see {@link #setSpillThreshold(long)}),
+     * are written to memory-mapped temporary files instead of being kept
+     * on the heap until the processing completes and are read by the
+     * serializer every time they are consumed. Values provided with
+     * {@link PhaseRouter#provide(Class, Object)} and streamed outcomes
+     * are never spilled.
+     *
+     * @param type  outcome type
+     * @param serializer  outcome serializer
+     * @return  this factory instance
+     */
+    public <T> PhaseRouterFactory setOutcomeSerializer(Class<T> type, OutcomeSerializer<T> serializer) {
+        serializers.put(type, serializer);
+        return this;
+    }
+
+    /**
+     * Minimum size in bytes of the outcomes spilled to disk, the default
+     * is {@link #DEFAULT_SPILL_THRESHOLD}. Only outcomes of the types with
+     * a serializer (see {@link #setOutcomeSerializer(Class, OutcomeSerializer)})
+     * are spilled.
+     *
+     * @param spillThreshold  minimum size of the spilled outcomes in bytes
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setSpillThreshold(long spillThreshold) {
+        if(spillThreshold < 0) {
+            throw new IllegalArgumentException("Spill threshold can't be negative: " + spillThreshold);
+        }
+        this.spillThreshold = spillThreshold;
+        return this;
+    }
+
+    /**
+     * Directory to create the temporary files of the spilled outcomes in,
+     * the default temporary-file directory is used by default.
+     *
+     * @param spillDirectory  directory for the spilled outcomes
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * Whether {@link PhaseRouter#consume(Class)}, {@link PhaseRouter#consume(Class, Object...)},
+     * {@link PhaseRouter#consumeTraced(Class, Object...)} and
+     * {@link PhaseRouter#consumeBuffer(Class, java.util.function.Function, Object...)}
+     * should reuse a processing context per thread instead of creating a new one for every
+     * invocation. A pooled context is cleared once the invocation has completed, so that
+     * it doesn't keep the outcomes, and is replaced after a failure. Together with the plans
+     * cached by the router, this makes consuming outcomes from a warmed-up router
+     * allocation-free, apart from what the handlers allocate. Handlers must not use
+     * the context once they have returned. Contexts of lazy routers are not pooled.
+     * Contexts are not pooled by default.
+     *
+     * @param pooledContexts  whether processing contexts should be pooled
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setPooledContexts(boolean pooledContexts) {
+        this.pooledContexts = pooledContexts;
+        return this;
+    }
+
+    /**
+     * Size in bytes of the direct chunks the buffers allocated with
+     * {@link PhaseProcessingContext#allocate(int)} are sliced from, the default
+     * is {@link #DEFAULT_BUFFER_CHUNK_SIZE}. The chunks are pooled by the router
+     * and reused by the following consume invocations once an invocation has
+     * completed. Buffers larger than a chunk are allocated separately.
+     * Zero disables pooling, i.e. every buffer is allocated separately.
+     *
+     * @param bufferChunkSize  size of a buffer chunk in bytes
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setBufferChunkSize(int bufferChunkSize) {
+        if(bufferChunkSize < 0) {
+            throw new IllegalArgumentException("Buffer chunk size can't be negative: " + bufferChunkSize);
+        }
+        this.bufferChunkSize = bufferChunkSize;
+        return this;
+    }
+
+    /**
+     * Persistent cache storing the outcomes of the phases that declare
+     * a version (see {@link PhaseRegistration#setVersion(String)}) and whose
+     * consumed and provided outcome types all have serializers (see
+     * {@link #setOutcomeSerializer(Class, OutcomeSerializer)}). Such a phase
+     * is not processed when the cache contains its outcomes for the same
+     * handler version and the same content of the consumed outcomes.
+     * Phases of asynchronous and batch invocations are not cached persistently.
+     * In the lazy mode the outcomes consumed by such a phase are produced
+     * before the phase is processed, since their content is the key of the cache.
+     *
+     * @param persistentCache  persistent outcome cache
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setPersistentCache(PersistentOutcomeCache persistentCache) {
+        this.persistentCache = persistentCache;
+        return this;
+    }
+
+    /**
+     * Listener to be notified about plan resolution and phase processing,
+     * e.g. {@link PhaseMetrics}. Without a listener (the default) phases
+     * are processed without any timing.
+     *
+     * @param listener  phase listener
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setListener(PhaseListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Types of the values that will be provided when consuming
+     * the outcomes passed to {@link #compile(Class...)}.
+     *
+     * @param types  input types
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory setInputTypes(Class<?>... types) {
+        inputTypes = new HashSet<>(types.length);
+        for(Class<?> type : types) {
+            inputTypes.add(type);
+        }
+        return this;
+    }
+
+    /**
+     * Outcome types whose plans should be resolved by {@link #build()}
+     * instead of the first time the outcomes are consumed.
+     * The plans are resolved for the input types set with
+     * {@link #setInputTypes(Class...)}. If a plan for any of the types can't
+     * be resolved, {@link #build()} will fail.
+     *
+     * @param types  outcome types
+     * @return  this factory instance
+     */
+    public PhaseRouterFactory compile(Class<?>... types) {
+        if(compiledTypes.isEmpty()) {
+            compiledTypes = new LinkedHashSet<>(types.length);
+        }
+        for(Class<?> type : types) {
+            compiledTypes.add(type);
+        }
+        return this;
+    }
+
     /**
      * Adds a phase handler
      *
@@ -103,6 +444,22 @@ public class PhaseRouterFactory {
         return this;
     }
 
+    /**
+     * Adds the phase handlers registered as {@link PhaseHandler} services,
+     * e.g. the handlers generated for the methods annotated with
+     * {@link Provides}.
+     *
+     * @param cl  class loader to load the services with
+     * @return  this factory instance
+     * @throws PhaseRouterException  in case of a failure
+     */
+    public PhaseRouterFactory addPhases(ClassLoader cl) throws PhaseRouterException {
+        for(PhaseHandler handler : ServiceLoader.load(PhaseHandler.class, cl)) {
+            registration.register(handler);
+        }
+        return this;
+    }
+
     /**
      * Creates a new instance of PhaseRouter
      *
@@ -110,6 +467,32 @@ public class PhaseRouterFactory {
      * @throws PhaseRouterException  in case of a failure
      */
     public PhaseRouter build() throws PhaseRouterException {
-        return new PhaseRouter(this);
+        if(lazy && executor != null) {
+            throw new PhaseRouterException("Lazy phase processing can't be combined with an executor");
+        }
+        if(lazy && incremental) {
+            throw new PhaseRouterException("Lazy phase processing can't be combined with the incremental mode");
+        }
+        if(polymorphic && incremental) {
+            throw new PhaseRouterException("Polymorphic outcome matching can't be combined with the incremental mode");
+        }
+        // a stream can be iterated only once
+        final Map<Class<?>, PhaseDescription> streamConsumers = new HashMap<>();
+        for(PhaseDescription phaseDescr : phases) {
+            for(Class<?> consumedType : phaseDescr.consumedTypes) {
+                if(keys.get(consumedType).streamed) {
+                    final PhaseDescription consumer = streamConsumers.put(consumedType, phaseDescr);
+                    if(consumer != null) {
+                        throw new PhaseRouterException("Outcome stream of type " + consumedType.getName() + " is consumed by more than one phase: "
+                                + consumer.handler + ", " + phaseDescr.handler);
+                    }
+                }
+            }
+        }
+        final PhaseRouter router = new PhaseRouter(this);
+        for(Class<?> type : compiledTypes) {
+            router.compile(type, inputTypes);
+        }
+        return router;
     }
 }
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trace of a consume invocation returned by
+ * {@link PhaseRouter#consumeTraced(Class, Object...)}, which lists
+ * the resolved plan, the phases that were actually processed, when and by
+ * which thread, how long they took, the sizes of their outcomes and the
+ * alternative providers that were not chosen.
+ *
+ * <p>The trace can be written as JSON with {@link #writeJson(Appendable)}
+ * or in the Chrome trace event format with {@link #writeChromeTrace(Appendable)},
+ * which can be loaded into chrome://tracing or other trace viewers.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class PhaseTrace<T> {
+
+    /**
+     * Processing of a phase
+     */
+    public static final class Event {
+
+        private final PhaseDescription phase;
+        private final String thread;
+        private final long threadId;
+        private final long startNanos;
+        private final long durationNanos;
+        private final Map<Class<?>, Long> outcomeSizes;
+        private List<PhaseDescription> alternatives = Collections.emptyList();
+
+        Event(PhaseDescription phase, long startNanos, long durationNanos, Map<Class<?>, Long> outcomeSizes) {
+            this.phase = phase;
+            final Thread current = Thread.currentThread();
+            this.thread = current.getName();
+            this.threadId = current.getId();
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.outcomeSizes = outcomeSizes;
+        }
+
+        /**
+         * Processed phase
+         *
+         * @return  processed phase
+         */
+        public PhaseDescription getPhase() {
+            return phase;
+        }
+
+        /**
+         * Name of the thread that processed the phase
+         *
+         * @return  thread name
+         */
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * {@link System#nanoTime()} when the processing started
+         *
+         * @return  start of the processing
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * Time the processing took in nanoseconds
+         *
+         * @return  duration of the processing
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Sizes of the outcomes provided by the phase per outcome type:
+         * the number of elements of collections, maps and arrays, the length
+         * of character sequences, the remaining elements of buffers and -1
+         * for other outcomes, streamed outcomes and outcomes that were not provided.
+         * The size of an outcome spilled to disk is the size of its serialized form in bytes
+         * and the size of a binary outcome is the number of its bytes.
+         *
+         * @return  outcome sizes per outcome type
+         */
+        public Map<Class<?>, Long> getOutcomeSizes() {
+            return outcomeSizes;
+        }
+
+        /**
+         * Registered providers of the outcome types provided by the phase
+         * that were not included in the plan.
+         *
+         * @return  alternative providers that were not chosen
+         */
+        public List<PhaseDescription> getAlternatives() {
+            return alternatives;
+        }
+    }
+
+    private final Class<T> type;
+    private final long startNanos = System.nanoTime();
+    /** Events are recorded by the threads processing the phases */
+    private final ConcurrentLinkedQueue<Event> recorded = new ConcurrentLinkedQueue<>();
+    private List<Event> events;
+    private PhasePlan plan;
+    private long resolutionNanos;
+    private long durationNanos;
+    private T outcome;
+
+    PhaseTrace(Class<T> type) {
+        this.type = type;
+    }
+
+    void phaseProcessed(PhaseDescription phase, long startNanos, long durationNanos, ProcessingContext ctx) {
+        final Map<Class<?>, Long> sizes = new LinkedHashMap<>(phase.providedIds.length);
+        for(int i = 0; i < phase.providedIds.length; ++i) {
+            sizes.put(phase.providedTypes.get(i), size(ctx.slots[phase.providedIds[i]]));
+        }
+        recorded.add(new Event(phase, startNanos, durationNanos, Collections.unmodifiableMap(sizes)));
+    }
+
+    /**
+     * Orders the recorded events and determines the alternatives that were not chosen.
+     *
+     * @param plan  processed plan or null, if the outcome was available without processing any phase
+     * @param resolutionNanos  time it took to obtain the plan
+     * @param outcome  consumed outcome
+     * @param providers  providers indexed by the outcome type ids
+     */
+    void complete(PhasePlan plan, long resolutionNanos, T outcome, PhaseDescription[][] providers) {
+        this.durationNanos = System.nanoTime() - startNanos;
+        this.plan = plan;
+        this.resolutionNanos = resolutionNanos;
+        this.outcome = outcome;
+        final List<Event> events = new ArrayList<>(recorded);
+        events.sort(Comparator.comparingLong(e -> e.startNanos));
+        if(plan != null) {
+            final List<PhaseDescription> chosen = Arrays.asList(plan.phases);
+            for(Event event : events) {
+                List<PhaseDescription> alternatives = null;
+                for(int providedType : event.phase.providedIds) {
+                    for(PhaseDescription provider : providers[providedType]) {
+                        if(!chosen.contains(provider) && (alternatives == null || !alternatives.contains(provider))) {
+                            if(alternatives == null) {
+                                alternatives = new ArrayList<>(1);
+                            }
+                            alternatives.add(provider);
+                        }
+                    }
+                }
+                if(alternatives != null) {
+                    event.alternatives = Collections.unmodifiableList(alternatives);
+                }
+            }
+        }
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Consumed outcome type
+     *
+     * @return  outcome type
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Consumed outcome
+     *
+     * @return  outcome
+     */
+    public T getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * The plan resolved for the invocation or null, if the outcome
+     * was available without processing any phase.
+     *
+     * @return  plan or null
+     */
+    public PhasePlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Time it took to obtain the plan, either from the plan cache
+     * or by resolving it, in nanoseconds
+     *
+     * @return  plan resolution time
+     */
+    public long getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    /**
+     * Time the whole invocation took in nanoseconds
+     *
+     * @return  invocation duration
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Processing of the phases in the order they were started.
+     * Phases of the plan that were not needed, e.g. by a lazy router,
+     * are not included. A trace is returned only if all the phases were
+     * processed successfully, so the events don't include failures.
+     *
+     * @return  processed phases
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Writes the trace as a JSON object.
+     *
+     * @param out  output to write to
+     * @throws IOException  in case of a failure to write
+     */
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{\"type\":");
+        string(out, type.getName());
+        out.append(",\"durationNanos\":").append(String.valueOf(durationNanos));
+        out.append(",\"resolutionNanos\":").append(String.valueOf(resolutionNanos));
+        out.append(",\"inputTypes\":[");
+        if(plan != null) {
+            int i = 0;
+            for(Class<?> inputType : plan.getInputTypes()) {
+                if(i++ > 0) {
+                    out.append(',');
+                }
+                string(out, inputType.getName());
+            }
+        }
+        out.append("],\"plan\":[");
+        if(plan != null) {
+            for(int i = 0; i < plan.phases.length; ++i) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                phase(out, plan.phases[i]);
+            }
+        }
+        out.append("],\"events\":[");
+        for(int i = 0; i < events.size(); ++i) {
+            final Event event = events.get(i);
+            if(i > 0) {
+                out.append(',');
+            }
+            out.append("{\"phase\":");
+            phase(out, event.phase);
+            out.append(",\"thread\":");
+            string(out, event.thread);
+            out.append(",\"startNanos\":").append(String.valueOf(event.startNanos - startNanos));
+            out.append(",\"durationNanos\":").append(String.valueOf(event.durationNanos));
+            out.append(',');
+            details(out, event);
+            out.append('}');
+        }
+        out.append("]}");
+    }
+
+    /**
+     * Writes the trace in the Chrome trace event format: a complete event
+     * for the plan resolution and one for every processed phase, the
+     * threads that processed the phases being the rows of the timeline.
+     *
+     * @param out  output to write to
+     * @throws IOException  in case of a failure to write
+     */
+    public void writeChromeTrace(Appendable out) throws IOException {
+        final long threadId = Thread.currentThread().getId();
+        out.append("{\"traceEvents\":[{\"name\":\"resolve ");
+        escape(out, type.getName());
+        out.append("\",\"cat\":\"plan\",\"ph\":\"X\",\"ts\":0,\"dur\":");
+        micros(out, resolutionNanos);
+        out.append(",\"pid\":1,\"tid\":").append(String.valueOf(threadId)).append('}');
+        for(Event event : events) {
+            out.append(",{\"name\":");
+            string(out, event.phase.handler.getClass().getName());
+            out.append(",\"cat\":\"phase\",\"ph\":\"X\",\"ts\":");
+            micros(out, event.startNanos - startNanos);
+            out.append(",\"dur\":");
+            micros(out, event.durationNanos);
+            out.append(",\"pid\":1,\"tid\":").append(String.valueOf(event.threadId));
+            out.append(",\"args\":{\"id\":").append(String.valueOf(event.phase.id)).append(',');
+            details(out, event);
+            out.append("}}");
+        }
+        out.append("],\"displayTimeUnit\":\"ns\"}");
+    }
+
+    private static void details(Appendable out, Event event) throws IOException {
+        out.append("\"outcomes\":{");
+        int i = 0;
+        for(Map.Entry<Class<?>, Long> size : event.outcomeSizes.entrySet()) {
+            if(i++ > 0) {
+                out.append(',');
+            }
+            string(out, size.getKey().getName());
+            out.append(':').append(String.valueOf(size.getValue()));
+        }
+        out.append("},\"alternatives\":[");
+        for(i = 0; i < event.alternatives.size(); ++i) {
+            if(i > 0) {
+                out.append(',');
+            }
+            phase(out, event.alternatives.get(i));
+        }
+        out.append(']');
+    }
+
+    private static void phase(Appendable out, PhaseDescription phase) throws IOException {
+        string(out, phase.id + " " + phase.handler.getClass().getName());
+    }
+
+    private static void micros(Appendable out, long nanos) throws IOException {
+        out.append(String.valueOf(nanos / 1000)).append('.');
+        final long fraction = nanos % 1000;
+        if(fraction < 100) {
+            out.append(fraction < 10 ? "00" : "0");
+        }
+        out.append(String.valueOf(fraction));
+    }
+
+    private static void string(Appendable out, String str) throws IOException {
+        out.append('"');
+        escape(out, str);
+        out.append('"');
+    }
+
+    private static void escape(Appendable out, String str) throws IOException {
+        for(int i = 0; i < str.length(); ++i) {
+            final char c = str.charAt(i);
+            switch(c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    private static long size(Object value) {
+        if(value == null || value instanceof OutcomeStream) {
+            return -1;
+        }
+        if(value instanceof OutcomeStore.SpilledOutcome) {
+            return ((OutcomeStore.SpilledOutcome) value).size();
+        }
+        if(value instanceof BufferArena.BufferOutcome) {
+            return ((BufferArena.BufferOutcome) value).size();
+        }
+        if(value instanceof Collection) {
+            return ((Collection<?>) value).size();
+        }
+        if(value instanceof Map) {
+            return ((Map<?, ?>) value).size();
+        }
+        if(value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        }
+        if(value instanceof Buffer) {
+            return ((Buffer) value).remaining();
+        }
+        if(value.getClass().isArray()) {
+            return Array.getLength(value);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phase processing context backed by an array of outcome slots
+ * indexed by the outcome type ids. The outcomes of types unknown to
+ * the registered handlers are kept in a map, which is created only
+ * when such an outcome is provided.
+ *
+ * @author Alexey Loubyansky
+ */
+class ProcessingContext implements PhaseProcessingContext {
+
+    private static final Map<Class<?>, Object> NONE = Collections.emptyMap();
+
+    private final OutcomeTypes types;
+    final Object[] slots;
+    private Map<Class<?>, Object> other;
+    /** Streams created for the phases providing streamed outcomes, guarded by this context */
+    private List<OutcomeStream<?>> streams;
+    /** Processing of the phases providing streamed outcomes, guarded by this context */
+    private List<CompletableFuture<Void>> producers;
+    /** Trace recording the processed phases or null, if the processing is not traced */
+    PhaseTrace<?> trace;
+    /**
+     * Content hashes of the outcomes indexed by the type ids, computed by the persistent
+     * cache on demand, guarded by this context, since phases may be processed concurrently
+     */
+    private byte[][] contentHashes;
+    /** Pool of the arena buffers are allocated from or null, if buffers are allocated directly */
+    BufferArena.Pool bufferPool;
+    /** Arena created on the first allocation, guarded by this context */
+    private BufferArena arena;
+    /** Whether the context is pooled and is being used by a consume invocation */
+    boolean inUse;
+
+    ProcessingContext(OutcomeTypes types, Object[] slots, Map<Class<?>, Object> other, boolean concurrent) {
+        this.types = types;
+        this.slots = Arrays.copyOf(slots, slots.length);
+        if(concurrent) {
+            this.other = new ConcurrentHashMap<>(other);
+        } else {
+            this.other = other.isEmpty() ? NONE : new HashMap<>(other);
+        }
+    }
+
+    @Override
+    public <O> void provide(Class<O> type, O value) throws PhaseRouterException {
+        put(types.exactId(type), type, value);
+    }
+
+    @Override
+    public <O> void provide(OutcomeKey<O> key, O value) throws PhaseRouterException {
+        put(key.id, key.getType(), value);
+    }
+
+    @Override
+    public <O> O consume(Class<O> type) throws PhaseRouterException {
+        return get(types.id(type), type);
+    }
+
+    @Override
+    public <O> O consume(OutcomeKey<O> key) throws PhaseRouterException {
+        return get(key.id, key.getType());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <O> Iterable<O> consumeStream(Class<O> type) throws PhaseRouterException {
+        final int id = types.id(type);
+        final Object value = id < 0 ? other.get(type) : slots[id];
+        if(value == null) {
+            throw new PhaseRouterException("Failed to resolve outcome of type " + type);
+        }
+        if(value instanceof OutcomeStream) {
+            return (OutcomeStream<O>) value;
+        }
+        if(value instanceof BufferArena.BufferOutcome) {
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " is a buffer");
+        }
+        return Collections.singletonList((O) OutcomeStore.read(value));
+    }
+
+    @Override
+    public synchronized ByteBuffer allocate(int capacity) {
+        if(bufferPool == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        if(arena == null) {
+            arena = new BufferArena(bufferPool);
+        }
+        return arena.allocate(capacity);
+    }
+
+    @Override
+    public void provideBuffer(Class<?> type, ByteBuffer buffer) throws PhaseRouterException {
+        final int id = types.exactId(type);
+        if(id >= 0 && types.keys[id].streamed) {
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " is streamed");
+        }
+        put(id, type, new BufferArena.BufferOutcome(buffer.slice(), bufferPool != null));
+    }
+
+    @Override
+    public ByteBuffer consumeBuffer(Class<?> type) throws PhaseRouterException {
+        final int id = types.id(type);
+        final Object value = id < 0 ? other.get(type) : slots[id];
+        if(value == null) {
+            throw new PhaseRouterException("Failed to resolve outcome of type " + type);
+        }
+        if(!(value instanceof BufferArena.BufferOutcome)) {
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " is not a buffer");
+        }
+        return ((BufferArena.BufferOutcome) value).view();
+    }
+
+    @Override
+    public boolean isAvailable(Class<?> type) {
+        final int id = types.id(type);
+        return id < 0 ? other.containsKey(type) : slots[id] != null;
+    }
+
+    @Override
+    public boolean isAvailable(OutcomeKey<?> key) {
+        return slots[key.id] != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    void put(int id, Class<?> type, Object value) throws PhaseRouterException {
+        if(id < 0) {
+            if(other == NONE) {
+                other = new HashMap<>();
+            }
+            if(other.put(type, value) != null) {
+                // let's for now be strict about it
+                throw new PhaseRouterException("Outcome of type " + type.getName() + " has already been provided");
+            }
+            putSupertypes(type, value);
+            return;
+        }
+        if(slots[id] instanceof OutcomeStream) {
+            ((OutcomeStream<Object>) slots[id]).put(value);
+            return;
+        }
+        if(slots[id] != null) {
+            // let's for now be strict about it
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " has already been provided");
+        }
+        if(value instanceof OutcomeStream) {
+            slots[id] = value;
+            return;
+        }
+        if(value instanceof BufferArena.BufferOutcome) {
+            slots[id] = value;
+            putSupertypes(type, value);
+            return;
+        }
+        final Object stored = types.store == null ? value : types.store.store(id, type, value);
+        slots[id] = stored;
+        putSupertypes(type, stored);
+    }
+
+    /**
+     * Makes the outcome available as its registered supertypes, unless outcomes
+     * of those types have already been provided, in the polymorphic mode.
+     */
+    private void putSupertypes(Class<?> type, Object value) {
+        for(int supertype : types.supertypes(type)) {
+            if(slots[supertype] == null) {
+                slots[supertype] = value;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    <O> O get(int id, Class<O> type) throws PhaseRouterException {
+        final Object value = id < 0 ? other.get(type) : slots[id];
+        if(value == null) {
+            throw new PhaseRouterException("Failed to resolve outcome of type " + type);
+        }
+        if(value instanceof OutcomeStream) {
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " is streamed");
+        }
+        if(value instanceof BufferArena.BufferOutcome) {
+            throw new PhaseRouterException("Outcome of type " + type.getName() + " is a buffer");
+        }
+        return (O) OutcomeStore.read(value);
+    }
+
+    /**
+     * Returns the content hash of the outcome computed by the persistent cache
+     *
+     * @param id  outcome type id
+     * @return  content hash or null, if it hasn't been computed yet
+     */
+    synchronized byte[] getContentHash(int id) {
+        return contentHashes == null ? null : contentHashes[id];
+    }
+
+    synchronized void setContentHash(int id, byte[] hash) {
+        if(contentHashes == null) {
+            contentHashes = new byte[slots.length][];
+        }
+        contentHashes[id] = hash;
+    }
+
+    /**
+     * Returns the chunks of the arena to the pool, which is called once
+     * the consume invocation has completed successfully. After a failure
+     * the arena is simply dropped, since phases providing streamed outcomes
+     * may still be using its buffers.
+     */
+    synchronized void releaseBuffers() {
+        if(arena != null) {
+            arena.release();
+        }
+    }
+
+    /**
+     * Prepares a pooled context for a consume invocation
+     * with the values provided to the router.
+     */
+    void reset(Object[] slots, Map<Class<?>, Object> other) {
+        System.arraycopy(slots, 0, this.slots, 0, slots.length);
+        if(this.other != NONE) {
+            this.other.putAll(other);
+        } else if(!other.isEmpty()) {
+            this.other = new HashMap<>(other);
+        }
+        inUse = true;
+    }
+
+    /**
+     * Clears the state of a pooled context once the consume invocation
+     * has completed successfully, so that it doesn't keep the outcomes.
+     */
+    synchronized void clear() {
+        Arrays.fill(slots, null);
+        if(other != NONE) {
+            other.clear();
+        }
+        if(contentHashes != null) {
+            Arrays.fill(contentHashes, null);
+        }
+        streams = null;
+        producers = null;
+        trace = null;
+        releaseBuffers();
+        inUse = false;
+    }
+
+    /**
+     * Adds the streams of a phase providing streamed outcomes
+     * and the future of its processing.
+     */
+    synchronized void addProducer(List<OutcomeStream<?>> streams, CompletableFuture<Void> producer) {
+        if(this.streams == null) {
+            this.streams = new ArrayList<>(streams.size());
+            producers = new ArrayList<>(1);
+        }
+        this.streams.addAll(streams);
+        producers.add(producer);
+    }
+
+    /**
+     * Discards the elements of the streams that haven't been consumed
+     * and returns a future completing when the phases providing
+     * the streams have been processed.
+     *
+     * @return  future completing when the streams have been provided
+     */
+    synchronized CompletableFuture<Void> completeStreams() {
+        if(streams == null) {
+            return null;
+        }
+        for(OutcomeStream<?> stream : streams) {
+            stream.discard();
+        }
+        return CompletableFuture.allOf(producers.toArray(new CompletableFuture<?>[producers.size()]));
+    }
+
+    /**
+     * Aborts the streams, which is called when processing
+     * of a phase has failed.
+     *
+     * @param failure  failure
+     */
+    synchronized void abortStreams(Throwable failure) {
+        if(streams == null) {
+            return;
+        }
+        for(OutcomeStream<?> stream : streams) {
+            stream.abort(failure);
+        }
+    }
+}
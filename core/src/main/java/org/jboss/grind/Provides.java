@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as a phase providing its return value as an outcome
+ * of the method's return type and consuming the outcomes of the types
+ * of its parameters, which have to be annotated with {@link Consumes}.
+ *
+ * <p>The grind annotation processor generates a {@link PhaseHandler}
+ * for every annotated method, named after the declaring class and the method,
+ * e.g. {@code Calculator_sumPhase} for the method {@code sum} of
+ * the class {@code Calculator}, which registers the outcome types and
+ * invokes the method directly. The generated handlers of static methods
+ * and of the methods of classes with a public no-arg constructor are
+ * registered as {@link PhaseHandler} services, which can be added with
+ * {@link PhaseRouterFactory#addPhases(ClassLoader)}.
+ *
+ * <p>A non-zero {@link #cost()} is declared by the generated handler
+ * with {@link PhaseRegistration#setCost(long)}.
+ *
+ * @author Alexey Loubyansky
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Provides {
+
+    /**
+     * Estimated processing time of the phase in nanoseconds
+     *
+     * @return  estimated cost of the phase
+     */
+    long cost() default 0;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of outcome type ids.
+ *
+ * @author Alexey Loubyansky
+ */
+final class TypeSet {
+
+    static final TypeSet EMPTY = new TypeSet(new long[0]);
+
+    private final long[] words;
+    /**
+     * Sets extending this one with an id indexed by the id, created on demand,
+     * so that the same sets of provided types don't have to be created over
+     * and over again. Replaced (never modified) when a set is added.
+     */
+    private volatile TypeSet[] successors;
+
+    private TypeSet(long[] words) {
+        this.words = words;
+    }
+
+    boolean contains(int id) {
+        final int word = id >>> 6;
+        return word < words.length && (words[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns a set including the ids of this set and the specified id.
+     *
+     * @param id  id to add
+     * @return  this set, if it already contains the id, otherwise the extended set
+     */
+    TypeSet with(int id) {
+        if(contains(id)) {
+            return this;
+        }
+        TypeSet[] successors = this.successors;
+        if(successors != null && id < successors.length && successors[id] != null) {
+            return successors[id];
+        }
+        final int word = id >>> 6;
+        final long[] tmp = Arrays.copyOf(words, Math.max(words.length, word + 1));
+        tmp[word] |= 1L << id;
+        final TypeSet set = new TypeSet(tmp);
+        successors = successors == null ? new TypeSet[id + 1] : Arrays.copyOf(successors, Math.max(successors.length, id + 1));
+        successors[id] = set;
+        this.successors = successors;
+        return set;
+    }
+
+    /**
+     * Ids in the set in ascending order
+     *
+     * @return  ids in the set
+     */
+    int[] ids() {
+        int size = 0;
+        for(long word : words) {
+            size += Long.bitCount(word);
+        }
+        final int[] ids = new int[size];
+        size = 0;
+        for(int i = 0; i < words.length; ++i) {
+            long word = words[i];
+            while(word != 0) {
+                ids[size++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return ids;
+    }
+
+    boolean isEmpty() {
+        for(long word : words) {
+            if(word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        return Arrays.equals(words, ((TypeSet) obj).words);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.AsyncPhaseHandler;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class AsyncPhaseHandlerTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final ExecutorService io = Executors.newSingleThreadExecutor();
+        try {
+            final PhaseRouter router = PhaseRouterFactory.getInstance()
+                    .addPhase(new PhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(Type1.class);
+                            registration.provides(TestResult.class);
+                        }
+                        @Override
+                        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+                        }})
+                    .addPhase(new AsyncPhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(Input1.class);
+                            registration.provides(Type1.class);
+                        }
+                        @Override
+                        public CompletionStage<Void> processAsync(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            final Input1 input = ctx.consume(Input1.class);
+                            return CompletableFuture.runAsync(() -> {
+                                try {
+                                    ctx.provide(Type1.class, new Type1(input.text + " read"));
+                                } catch (PhaseRouterException e) {
+                                    throw new IllegalStateException(e);
+                                }
+                            }, io);
+                        }})
+                    .build();
+
+            final CompletionStage<TestResult> result = router.consumeAsync(TestResult.class, new Input1("async"));
+            assertEquals(new TestResult("async read"), result.toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+            // blocking consumption of asynchronous handlers
+            assertEquals(new TestResult("sync read"), router.consume(TestResult.class, new Input1("sync")));
+        } finally {
+            io.shutdown();
+        }
+    }
+
+    private static PhaseRouter failingRouter(Executor executor, CompletableFuture<Void> stage) throws PhaseRouterException {
+        return PhaseRouterFactory.getInstance()
+                .setExecutor(executor)
+                .addPhase(new AsyncPhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public CompletionStage<Void> processAsync(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        return stage;
+                    }})
+                .build();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("I/O failure"));
+        // the failure surfaces the same way with and without an executor
+        for(Executor executor : new Executor[] {null, Runnable::run}) {
+            try {
+                failingRouter(executor, failed).consume(TestResult.class);
+                fail("The handler failure should have been propagated");
+            } catch(IllegalStateException e) {
+                assertEquals("I/O failure", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCancelled() throws Exception {
+        final CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        for(Executor executor : new Executor[] {null, Runnable::run}) {
+            try {
+                failingRouter(executor, cancelled).consume(TestResult.class);
+                fail("The cancellation should have been propagated");
+            } catch(PhaseRouterException e) {
+                assertEquals("Phase processing was cancelled", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.grind.BatchPhaseHandler;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class BatchConsumeTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final List<Integer> batchSizes = new ArrayList<>();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type1.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+                    }})
+                .addPhase(new BatchPhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Input1.class);
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void processBatch(List<PhaseProcessingContext> contexts) throws PhaseRouterException {
+                        batchSizes.add(contexts.size());
+                        for(PhaseProcessingContext ctx : contexts) {
+                            ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text + contexts.size()));
+                        }
+                    }})
+                .build();
+
+        final List<Object[]> inputs = Arrays.asList(
+                new Object[] {new Input1("a")},
+                new Object[] {new Input1("b")},
+                new Object[] {new Type1("c")},
+                new Object[] {new Input1("d")});
+        assertEquals(Arrays.asList(new TestResult("a3"), new TestResult("b3"), new TestResult("c"), new TestResult("d3")),
+                router.consumeBatch(TestResult.class, inputs));
+        assertEquals(Arrays.asList(3), batchSizes);
+
+        // outside of a batch the handler processes a batch of one
+        assertEquals(new TestResult("e1"), router.consume(TestResult.class, new Input1("e")));
+    }
+}
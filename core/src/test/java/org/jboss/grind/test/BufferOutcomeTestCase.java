@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class BufferOutcomeTestCase {
+
+    /** Binary outcome type of the encoded text */
+    public static final class Encoded {
+    }
+
+    /** Binary outcome type of the upper-cased encoded text */
+    public static final class UpperCased {
+    }
+
+    private static class EncodePhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(String.class);
+            registration.provides(Encoded.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final byte[] bytes = ctx.consume(String.class).getBytes(StandardCharsets.US_ASCII);
+            final ByteBuffer buffer = ctx.allocate(bytes.length);
+            buffer.put(bytes).flip();
+            ctx.provideBuffer(Encoded.class, buffer);
+        }
+    }
+
+    private static class UpperCasePhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Encoded.class);
+            registration.provides(UpperCased.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final ByteBuffer encoded = ctx.consumeBuffer(Encoded.class);
+            assertTrue(encoded.isReadOnly());
+            assertTrue(encoded.isDirect());
+            final ByteBuffer buffer = ctx.allocate(encoded.remaining());
+            while(encoded.hasRemaining()) {
+                buffer.put((byte) Character.toUpperCase(encoded.get()));
+            }
+            buffer.flip();
+            ctx.provideBuffer(UpperCased.class, buffer);
+            // every consumer gets its own view
+            assertEquals(buffer.remaining(), ctx.consumeBuffer(Encoded.class).remaining());
+        }
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static PhaseRouter router(PhaseRouterFactory factory) throws PhaseRouterException {
+        return factory.addPhase(new EncodePhase())
+                .addPhase(new UpperCasePhase())
+                .build();
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final PhaseRouter router = router(PhaseRouterFactory.getInstance().setBufferChunkSize(64));
+        for(int i = 0; i < 10; ++i) {
+            assertEquals("HELLO " + i, router.consumeBuffer(UpperCased.class, BufferOutcomeTestCase::decode, "hello " + i));
+        }
+        // larger than a chunk
+        final StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < 100; ++i) {
+            buf.append((char) ('a' + i % 26));
+        }
+        final String text = buf.toString();
+        assertEquals(text.toUpperCase(), router.consumeBuffer(UpperCased.class, BufferOutcomeTestCase::decode, text));
+        assertEquals("ABC", router.consumeBuffer(UpperCased.class, BufferOutcomeTestCase::decode, "abc"));
+    }
+
+    @Test
+    public void testUnpooled() throws Exception {
+        final PhaseRouter router = router(PhaseRouterFactory.getInstance().setBufferChunkSize(0));
+        assertEquals("ABC", router.consumeBuffer(UpperCased.class, BufferOutcomeTestCase::decode, "abc"));
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        final PhaseRouter router = router(PhaseRouterFactory.getInstance().setLazy(true));
+        assertEquals("ABC", router.consumeBuffer(UpperCased.class, BufferOutcomeTestCase::decode, "abc"));
+    }
+
+    @Test
+    public void testConsumeBufferAsValue() throws Exception {
+        final PhaseRouter router = router(PhaseRouterFactory.getInstance());
+        try {
+            router.consume(UpperCased.class, "abc");
+            fail("Buffer consumed as a value");
+        } catch(PhaseRouterException e) {
+            assertEquals("Outcome of type " + UpperCased.class.getName() + " is a buffer", e.getMessage());
+        }
+        try {
+            router.consumeBuffer(String.class, ByteBuffer::remaining, "abc");
+            fail("Value consumed as a buffer");
+        } catch(PhaseRouterException e) {
+            assertEquals("Outcome of type " + String.class.getName() + " is not a buffer", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.grind.CachePolicy;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CachedOutcomeTestCase {
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class CountingHandler implements PhaseHandler {
+
+        final AtomicInteger invocations = new AtomicInteger();
+        private final CachePolicy cachePolicy;
+
+        CountingHandler(CachePolicy cachePolicy) {
+            this.cachePolicy = cachePolicy;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(String.class);
+            registration.provides(Type1.class, cachePolicy);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            invocations.incrementAndGet();
+            ctx.provide(Type1.class, new Type1(ctx.consume(String.class)));
+        }
+    }
+
+    private static PhaseRouter newRouter(PhaseHandler handler) throws PhaseRouterException {
+        return PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type1.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+                    }})
+                .addPhase(handler)
+                .build();
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final CountingHandler handler = new CountingHandler(CachePolicy.maxSize(10));
+        final PhaseRouter router = newRouter(handler);
+
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(1, handler.invocations.get());
+
+        assertEquals(new TestResult("b"), router.consume(TestResult.class, "b"));
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(2, handler.invocations.get());
+    }
+
+    @Test
+    public void testSizeEviction() throws Exception {
+        final CountingHandler handler = new CountingHandler(CachePolicy.maxSize(1));
+        final PhaseRouter router = newRouter(handler);
+
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(new TestResult("b"), router.consume(TestResult.class, "b"));
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(3, handler.invocations.get());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        final CountingHandler handler = new CountingHandler(CachePolicy.of(10, 1, TimeUnit.MILLISECONDS));
+        final PhaseRouter router = newRouter(handler);
+
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        Thread.sleep(20);
+        assertEquals(new TestResult("a"), router.consume(TestResult.class, "a"));
+        assertEquals(2, handler.invocations.get());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhasePlan;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CompiledPlanTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+    }
+
+    private final PhaseHandler resultHandler = new PhaseHandler() {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Type1.class);
+            registration.provides(TestResult.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+        }};
+
+    private final PhaseHandler type1Handler = new PhaseHandler() {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Input1.class);
+            registration.provides(Type1.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text));
+        }};
+
+    private final PhaseHandler type2Handler = new PhaseHandler() {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(TestResult.class);
+            registration.consumes(Type2.class);
+            registration.provides(Type2.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type2.class, new Type2());
+        }};
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(resultHandler)
+                .addPhase(type1Handler)
+                .setInputTypes(Input1.class)
+                .compile(TestResult.class)
+                .build();
+
+        assertEquals(new TestResult("compiled"), router.consume(TestResult.class, new Input1("compiled")));
+        assertEquals(new TestResult("compiled"), router.consume(TestResult.class, new Input1("compiled")));
+        assertEquals(0, router.getPlanCacheMisses());
+        assertEquals(2, router.getPlanCacheHits());
+    }
+
+    @Test
+    public void testUnresolvableWithoutInput() throws Exception {
+        try {
+            PhaseRouterFactory.getInstance()
+                .addPhase(resultHandler)
+                .addPhase(type1Handler)
+                .compile(TestResult.class)
+                .build();
+            fail();
+        } catch(PhaseRouterException e) {
+            assertEquals("Failed to resolve phase flow for the outcome of type " + TestResult.class.getName(), e.getMessage());
+        }
+
+        try {
+            PhaseRouterFactory.getInstance()
+                .addPhase(resultHandler)
+                .addPhase(type1Handler)
+                .addPhase(type2Handler)
+                .setInputTypes(Input1.class)
+                .compile(TestResult.class, Type2.class)
+                .build();
+            fail();
+        } catch(PhaseRouterException e) {
+            assertEquals("Failed to resolve phase flow for the outcome of type " + Type2.class.getName(), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPlanOrder() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(resultHandler)
+                .addPhase(type1Handler)
+                .setInputTypes(Input1.class)
+                .compile(TestResult.class)
+                .build();
+        router.provide(new Input1("provided"));
+        final PhasePlan plan = router.getPlan(TestResult.class);
+        assertEquals(Collections.singleton(Input1.class), plan.getInputTypes());
+        assertEquals(Arrays.asList(type1Handler, resultHandler), plan.getHandlers());
+    }
+}
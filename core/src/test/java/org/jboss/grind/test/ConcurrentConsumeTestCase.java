@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ConcurrentConsumeTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type1.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Input1.class);
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text));
+                    }})
+                .build();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for(int i = 0; i < 1000; ++i) {
+                final String text = "input" + i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return new TestResult(text).equals(router.consume(TestResult.class, new Input1(text)));
+                    }
+                }));
+            }
+            for(Future<Boolean> result : results) {
+                assertEquals(Boolean.TRUE, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the values provided per invocation are not added to the router
+        assertFalse(router.isAvailable(Input1.class));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.grind.Outcomes;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ConsumeAllTestCase {
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+        final String text;
+
+        Type2(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type3 {
+        final String text;
+
+        Type3(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final AtomicInteger sharedInvocations = new AtomicInteger();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type2.class);
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(Type1.class, new Type1(ctx.consume(Type2.class).text + "1"));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(Type2.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        sharedInvocations.incrementAndGet();
+                        ctx.provide(Type2.class, new Type2("2"));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type2.class);
+                        registration.provides(Type3.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(Type3.class, new Type3(ctx.consume(Type2.class).text + "3"));
+                    }})
+                .build();
+
+        Outcomes outcomes = router.consumeAll(Type1.class, Type3.class);
+        assertEquals("21", outcomes.get(Type1.class).text);
+        assertEquals("23", outcomes.get(Type3.class).text);
+        assertTrue(outcomes.isAvailable(Type2.class));
+        assertEquals(1, sharedInvocations.get());
+        assertEquals(1, router.getPlanCacheMisses());
+
+        outcomes = router.consumeAll(Type1.class, Type3.class);
+        assertEquals("21", outcomes.get(Type1.class).text);
+        assertEquals(2, sharedInvocations.get());
+        assertEquals(1, router.getPlanCacheHits());
+
+        // the provided type is not produced by the plan
+        router.provide(new Type2("x"));
+        outcomes = router.consumeAll(Type1.class, Type2.class, Type3.class);
+        assertEquals("x1", outcomes.get(Type1.class).text);
+        assertEquals("x", outcomes.get(Type2.class).text);
+        assertEquals("x3", outcomes.get(Type3.class).text);
+        assertEquals(2, sharedInvocations.get());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.function.Function;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ * Every type in a long chain has a provider depending on a type nobody
+ * provides and a provider depending on the next type in the chain,
+ * both registered before the provider that actually leads to the input.
+ *
+ * @author Alexey Loubyansky
+ */
+public class DeepAlternativesTestCase {
+
+    private static final int TYPES = 100;
+
+    public static class Input {
+    }
+
+    public static class Missing {
+    }
+
+    private static class CountingPhase implements PhaseHandler {
+
+        private final Class<Object> provided;
+        private final Class<?> consumed;
+
+        CountingPhase(Class<Object> provided, Class<?> consumed) {
+            this.provided = provided;
+            this.consumed = consumed;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(consumed);
+            registration.provides(provided);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final Object value = ctx.consume(consumed);
+            ctx.provide(provided, value instanceof Integer ? (Integer) value + 1 : 1);
+        }
+    }
+
+    /**
+     * Outcome recording the phases that produced it
+     */
+    public static class Step {
+        final String path;
+
+        Step(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class Start extends Step {
+        Start(String path) {
+            super(path);
+        }
+    }
+
+    public static class Middle extends Step {
+        Middle(String path) {
+            super(path);
+        }
+    }
+
+    public static class Target extends Step {
+        Target(String path) {
+            super(path);
+        }
+    }
+
+    public static class Out extends Step {
+        Out(String path) {
+            super(path);
+        }
+    }
+
+    private static class PathPhase<T extends Step> implements PhaseHandler {
+
+        private final String name;
+        private final Class<? extends Step> consumed;
+        private final Class<T> provided;
+        private final Function<String, T> factory;
+
+        PathPhase(String name, Class<? extends Step> consumed, Class<T> provided, Function<String, T> factory) {
+            this.name = name;
+            this.consumed = consumed;
+            this.provided = provided;
+            this.factory = factory;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(consumed);
+            registration.provides(provided);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(provided, factory.apply(ctx.consume(consumed).path + "," + name));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Object> type(int i) throws ClassNotFoundException {
+        final StringBuilder buf = new StringBuilder();
+        for(int j = 0; j <= i; ++j) {
+            buf.append('[');
+        }
+        return (Class<Object>) Class.forName(buf.append('L').append(Input.class.getName()).append(';').toString());
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        for(int i = 0; i < TYPES; ++i) {
+            factory.addPhase(new CountingPhase(type(i), Missing.class));
+            if(i < TYPES - 1) {
+                factory.addPhase(new CountingPhase(type(i), type(i + 1)));
+            }
+            factory.addPhase(new CountingPhase(type(i), i == 0 ? Input.class : type(i - 1)));
+        }
+        assertEquals(TYPES, factory.build().consume(type(TYPES - 1), new Input()));
+    }
+
+    /**
+     * The first registered provider of a type is chosen regardless
+     * of whether the type is consumed directly or by another phase.
+     */
+    @Test
+    public void testProviderOfIntermediateType() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new PathPhase<>("A", Middle.class, Target.class, Target::new))
+                .addPhase(new PathPhase<>("M", Start.class, Middle.class, Middle::new))
+                .addPhase(new PathPhase<>("B", Start.class, Target.class, Target::new))
+                .addPhase(new PathPhase<>("P", Target.class, Out.class, Out::new))
+                .build();
+        assertEquals("in,M,A", router.consume(Target.class, new Start("in")).path);
+        assertEquals("in,M,A,P", router.consume(Out.class, new Start("in")).path);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class IncrementalRouterTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Input2 {
+        final String text;
+
+        Input2(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+        final String text;
+
+        Type2(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final List<String> processed = new ArrayList<>();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setIncremental(true)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Type1.class);
+                        registration.consumes(Type2.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("result");
+                        ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text + ctx.consume(Type2.class).text));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Input1.class);
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("type1");
+                        ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Input2.class);
+                        registration.provides(Type2.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("type2");
+                        ctx.provide(Type2.class, new Type2(ctx.consume(Input2.class).text));
+                    }})
+                .build();
+
+        router.provide(new Input1("a"));
+        router.provide(new Input2("b"));
+        assertEquals(new TestResult("ab"), router.consume(TestResult.class));
+        assertEquals(3, processed.size());
+
+        processed.clear();
+        assertEquals(new TestResult("ab"), router.consume(TestResult.class));
+        assertEquals(Collections.emptyList(), processed);
+
+        router.provide(new Input2("c"));
+        assertEquals(new TestResult("ac"), router.consume(TestResult.class));
+        assertEquals(Arrays.asList("type2", "result"), processed);
+
+        processed.clear();
+        router.provide(new Input1("d"));
+        assertEquals("d", router.consume(Type1.class).text);
+        assertEquals(new TestResult("dc"), router.consume(TestResult.class));
+        assertEquals(Arrays.asList("type1", "result"), processed);
+    }
+
+    @Test
+    public void testOnlyRetainingConsumption() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setIncremental(true)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Input1.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(TestResult.class, new TestResult(ctx.consume(Input1.class).text));
+                    }})
+                .build();
+        router.provide(new Input1("a"));
+
+        try {
+            router.consume(TestResult.class, new Input1("b"));
+            fail("Incremental routers should reject values provided for a single invocation");
+        } catch(PhaseRouterException e) {
+            assertEquals("Incremental routers don't support values provided for a single invocation", e.getMessage());
+        }
+        try {
+            router.consumeAll(TestResult.class);
+            fail("Incremental routers should reject consumeAll");
+        } catch(PhaseRouterException e) {
+            assertEquals("Incremental routers don't support consuming multiple outcome types at once", e.getMessage());
+        }
+        try {
+            router.consumeBatch(TestResult.class, Collections.singletonList(new Object[0]));
+            fail("Incremental routers should reject consumeBatch");
+        } catch(PhaseRouterException e) {
+            assertEquals("Incremental routers don't support batch consumption", e.getMessage());
+        }
+        try {
+            router.consumeAsync(TestResult.class).toCompletableFuture().get();
+            fail("Incremental routers should reject consumeAsync");
+        } catch(ExecutionException e) {
+            assertEquals("Incremental routers don't support asynchronous consumption", e.getCause().getMessage());
+        }
+
+        assertEquals(new TestResult("a"), router.consume(TestResult.class));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.grind.CachePolicy;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class LazyPhasesTestCase {
+
+    public static class Flag {
+        final boolean value;
+
+        Flag(boolean value) {
+            this.value = value;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+        final String text;
+
+        Type2(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final List<String> processed = new ArrayList<>();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setLazy(true)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Flag.class);
+                        registration.consumes(Type1.class);
+                        registration.consumes(Type2.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("result");
+                        assertTrue(ctx.isAvailable(Type1.class));
+                        assertTrue(ctx.isAvailable(Type2.class));
+                        final String text = ctx.consume(Flag.class).value ? ctx.consume(Type1.class).text : ctx.consume(Type2.class).text;
+                        ctx.provide(TestResult.class, new TestResult(text));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("type1");
+                        ctx.provide(Type1.class, new Type1("type1"));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(Type2.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        processed.add("type2");
+                        ctx.provide(Type2.class, new Type2("type2"));
+                    }})
+                .build();
+
+        assertEquals(new TestResult("type1"), router.consume(TestResult.class, new Flag(true)));
+        assertEquals(Arrays.asList("result", "type1"), processed);
+
+        processed.clear();
+        assertEquals(new TestResult("type2"), router.consume(TestResult.class, new Flag(false)));
+        assertEquals(Arrays.asList("result", "type2"), processed);
+    }
+
+    @Test
+    public void testNotProducibleNotAvailable() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setLazy(true)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        assertFalse(ctx.isAvailable(Type1.class));
+                        ctx.provide(TestResult.class, new TestResult("result"));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.provides(Type1.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(Type1.class, new Type1("type1"));
+                    }})
+                .build();
+
+        assertEquals(new TestResult("result"), router.consume(TestResult.class));
+    }
+
+    @Test
+    public void testCachedOutcome() throws Exception {
+
+        final AtomicInteger invocations = new AtomicInteger();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setLazy(true)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Integer.class);
+                        registration.provides(TestResult.class, CachePolicy.maxSize(16));
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        invocations.incrementAndGet();
+                        ctx.provide(TestResult.class, new TestResult("length" + ctx.consume(Integer.class)));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(String.class);
+                        registration.provides(Integer.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.provide(Integer.class, ctx.consume(String.class).length());
+                    }})
+                .build();
+
+        for(int i = 0; i < 3; ++i) {
+            assertEquals(new TestResult("length3"), router.consume(TestResult.class, "abc"));
+        }
+        assertEquals(1, invocations.get());
+    }
+}
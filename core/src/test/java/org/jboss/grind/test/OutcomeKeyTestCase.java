@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.grind.OutcomeKey;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class OutcomeKeyTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Unknown {
+    }
+
+    private static class KeyedHandler implements PhaseHandler {
+
+        private OutcomeKey<Input1> input;
+        private OutcomeKey<TestResult> result;
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Input1.class);
+            registration.provides(TestResult.class);
+            input = registration.getKey(Input1.class);
+            result = registration.getKey(TestResult.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            assertTrue(ctx.isAvailable(input));
+            assertFalse(ctx.isAvailable(result));
+            // keys and classes address the same outcomes
+            assertEquals(ctx.consume(Input1.class), ctx.consume(input));
+            assertTrue(ctx.isAvailable(Unknown.class));
+            ctx.provide(result, new TestResult(ctx.consume(input).text));
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final KeyedHandler handler = new KeyedHandler();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(handler)
+                .build();
+
+        assertEquals(Input1.class, handler.input.getType());
+        assertEquals(TestResult.class, handler.result.getType());
+
+        // types that aren't known to any of the handlers can still be provided
+        router.provide(new Unknown());
+        assertEquals(new TestResult("keyed"), router.consume(TestResult.class, new Input1("keyed")));
+    }
+}
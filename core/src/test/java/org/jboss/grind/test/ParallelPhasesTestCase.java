@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ParallelPhasesTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+        final String text;
+
+        Type2(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        // both independent phases have to reach the barrier for either of them to complete
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final PhaseRouter router = PhaseRouterFactory.getInstance()
+                    .setExecutor(executor)
+                    .addPhase(new PhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(Type1.class);
+                            registration.consumes(Type2.class);
+                            registration.provides(TestResult.class);
+                        }
+                        @Override
+                        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text + ctx.consume(Type2.class).text));
+                        }})
+                    .addPhase(new PhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(Input1.class);
+                            registration.provides(Type1.class);
+                        }
+                        @Override
+                        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            await(barrier);
+                            ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text + "1"));
+                        }})
+                    .addPhase(new PhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(Input1.class);
+                            registration.provides(Type2.class);
+                        }
+                        @Override
+                        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            await(barrier);
+                            ctx.provide(Type2.class, new Type2(ctx.consume(Input1.class).text + "2"));
+                        }})
+                    .build();
+
+            assertEquals(new TestResult("input1input2"), router.consume(TestResult.class, new Input1("input")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) throws PhaseRouterException {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new PhaseRouterException(e);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.jboss.grind.OutcomeSerializer;
+import org.jboss.grind.PersistentOutcomeCache;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PersistentOutcomeCacheTestCase {
+
+    public static class Source {
+        final String text;
+
+        Source(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Result {
+        final String text;
+
+        Result(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class TextSerializer<T> implements OutcomeSerializer<T> {
+
+        private final Function<T, String> text;
+        private final Function<String, T> factory;
+
+        TextSerializer(Function<T, String> text, Function<String, T> factory) {
+            this.text = text;
+            this.factory = factory;
+        }
+
+        @Override
+        public long sizeOf(T outcome) {
+            return text.apply(outcome).length();
+        }
+
+        @Override
+        public void write(T outcome, WritableByteChannel channel) throws IOException {
+            if(text.apply(outcome).equals("FULL")) {
+                throw new IOException("No space left on device");
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(text.apply(outcome).getBytes(StandardCharsets.UTF_8));
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public T read(ByteBuffer buffer) throws IOException {
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return factory.apply(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class UpperCasePhase implements PhaseHandler {
+
+        private final String version;
+        int invocations;
+
+        UpperCasePhase(String version) {
+            this.version = version;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Source.class);
+            registration.provides(Result.class);
+            registration.setVersion(version);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ++invocations;
+            ctx.provide(Result.class, new Result(ctx.consume(Source.class).text.toUpperCase()));
+        }
+    }
+
+    private static PhaseRouter router(PersistentOutcomeCache cache, PhaseHandler handler) throws PhaseRouterException {
+        return PhaseRouterFactory.getInstance()
+                .setOutcomeSerializer(Source.class, new TextSerializer<>(s -> s.text, Source::new))
+                .setOutcomeSerializer(Result.class, new TextSerializer<>(r -> r.text, Result::new))
+                .setPersistentCache(cache)
+                .addPhase(handler)
+                .build();
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try(Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try(Stream<Path> files = Files.list(dir)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final Path dir = Files.createTempDirectory("grind-cache");
+        try {
+            UpperCasePhase phase = new UpperCasePhase("1");
+            PersistentOutcomeCache cache = new PersistentOutcomeCache(dir, 1024 * 1024);
+            assertEquals("ABC", router(cache, phase).consume(Result.class, new Source("abc")).text);
+            assertEquals(1, phase.invocations);
+            assertEquals(0, cache.getHits());
+            assertEquals(1, countFiles(dir));
+            assertTrue(cache.getSize() > 0);
+
+            // as if the process was restarted
+            phase = new UpperCasePhase("1");
+            cache = new PersistentOutcomeCache(dir, 1024 * 1024);
+            final PhaseRouter router = router(cache, phase);
+            assertEquals("ABC", router.consume(Result.class, new Source("abc")).text);
+            assertEquals(0, phase.invocations);
+            assertEquals(1, cache.getHits());
+
+            assertEquals("ABD", router.consume(Result.class, new Source("abd")).text);
+            assertEquals(1, phase.invocations);
+            assertEquals(2, countFiles(dir));
+
+            // a new version of the handler
+            phase = new UpperCasePhase("2");
+            assertEquals("ABC", router(cache, phase).consume(Result.class, new Source("abc")).text);
+            assertEquals(1, phase.invocations);
+            assertEquals(3, countFiles(dir));
+
+            cache.clear();
+            assertEquals(0, countFiles(dir));
+            assertEquals(0, cache.getSize());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testStoreFailure() throws Exception {
+        final Path dir = Files.createTempDirectory("grind-cache");
+        try {
+            final UpperCasePhase phase = new UpperCasePhase("1");
+            final PersistentOutcomeCache cache = new PersistentOutcomeCache(dir, 1024 * 1024);
+            final PhaseRouter router = router(cache, phase);
+            // the outcome could not be stored, which doesn't fail the invocation
+            assertEquals("FULL", router.consume(Result.class, new Source("full")).text);
+            assertEquals(0, countFiles(dir));
+            assertEquals(0, cache.getSize());
+            assertEquals("FULL", router.consume(Result.class, new Source("full")).text);
+            assertEquals(2, phase.invocations);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testLazyRouter() throws Exception {
+        final Path dir = Files.createTempDirectory("grind-cache");
+        try {
+            final PersistentOutcomeCache cache = new PersistentOutcomeCache(dir, 1024 * 1024);
+            final UpperCasePhase phase = new UpperCasePhase("1");
+            final PhaseRouter router = PhaseRouterFactory.getInstance()
+                    .setLazy(true)
+                    .setOutcomeSerializer(Source.class, new TextSerializer<>(s -> s.text, Source::new))
+                    .setOutcomeSerializer(Result.class, new TextSerializer<>(r -> r.text, Result::new))
+                    .setPersistentCache(cache)
+                    .addPhase(phase)
+                    .addPhase(new PhaseHandler() {
+                        @Override
+                        public void register(PhaseRegistration registration) throws PhaseRouterException {
+                            registration.consumes(String.class);
+                            registration.provides(Source.class);
+                        }
+                        @Override
+                        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                            ctx.provide(Source.class, new Source(ctx.consume(String.class).trim()));
+                        }})
+                    .build();
+
+            assertEquals("ABC", router.consume(Result.class, " abc ").text);
+            assertEquals("ABC", router.consume(Result.class, "abc").text);
+            assertEquals(1, phase.invocations);
+            assertEquals(1, cache.getHits());
+
+            assertEquals("ABD", router.consume(Result.class, "abd").text);
+            assertEquals(2, phase.invocations);
+            assertEquals(2, countFiles(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final Path dir = Files.createTempDirectory("grind-cache");
+        try {
+            PersistentOutcomeCache cache = new PersistentOutcomeCache(dir, 1024 * 1024);
+            router(cache, new UpperCasePhase("1")).consume(Result.class, new Source("a"));
+            final long entrySize = cache.getSize();
+            cache.clear();
+
+            cache = new PersistentOutcomeCache(dir, entrySize * 2);
+            final PhaseRouter router = router(cache, new UpperCasePhase("1"));
+            router.consume(Result.class, new Source("a"));
+            router.consume(Result.class, new Source("b"));
+            router.consume(Result.class, new Source("c"));
+            assertEquals(2, countFiles(dir));
+            assertEquals(entrySize * 2, cache.getSize());
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseMetrics;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PhaseCostTestCase {
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type2 {
+        final String text;
+
+        Type2(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Type1Phase implements PhaseHandler {
+
+        private final String text;
+        private final long cost;
+        private final long sleepMillis;
+        private final boolean consumesType2;
+
+        Type1Phase(String text, long cost, long sleepMillis, boolean consumesType2) {
+            this.text = text;
+            this.cost = cost;
+            this.sleepMillis = sleepMillis;
+            this.consumesType2 = consumesType2;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            if(consumesType2) {
+                registration.consumes(Type2.class);
+            }
+            registration.provides(Type1.class);
+            registration.setCost(cost);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            if(sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PhaseRouterException(e);
+                }
+            }
+            ctx.provide(Type1.class, new Type1(consumesType2 ? text + ctx.consume(Type2.class).text : text));
+        }
+    }
+
+    private static class Type2Phase implements PhaseHandler {
+
+        private final long cost;
+
+        Type2Phase(long cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(Type2.class);
+            registration.setCost(cost);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type2.class, new Type2("+type2"));
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new Type1Phase("expensive", 100, 0, false))
+                .addPhase(new Type1Phase("cheap", 10, 0, false))
+                .build();
+        assertEquals("cheap", router.consume(Type1.class).text);
+    }
+
+    @Test
+    public void testTotalCostOfDependencies() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new Type1Phase("dependent", 10, 0, true))
+                .addPhase(new Type1Phase("standalone", 50, 0, false))
+                .addPhase(new Type2Phase(100))
+                .build();
+        assertEquals("standalone", router.consume(Type1.class).text);
+    }
+
+    @Test
+    public void testEqualCostsKeepRegistrationOrder() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new Type1Phase("first", 10, 0, false))
+                .addPhase(new Type1Phase("second", 10, 0, false))
+                .build();
+        assertEquals("first", router.consume(Type1.class).text);
+    }
+
+    @Test
+    public void testNegativeCost() throws Exception {
+        try {
+            PhaseRouterFactory.getInstance().addPhase(new Type1Phase("negative", -1, 0, false));
+            fail();
+        } catch(PhaseRouterException e) {
+            assertEquals("Phase cost can't be negative: -1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUpdateCostsFromMetrics() throws Exception {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setListener(metrics)
+                // declared as cheap but takes at least 20ms
+                .addPhase(new Type1Phase("slow", 1, 20, false))
+                .addPhase(new Type1Phase("fast", 1_000_000, 0, false))
+                .build();
+        assertEquals("slow", router.consume(Type1.class).text);
+        router.updateCosts(metrics);
+        assertEquals("fast", router.consume(Type1.class).text);
+    }
+}
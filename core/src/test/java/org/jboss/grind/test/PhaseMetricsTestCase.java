@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jboss.grind.PhaseMetrics;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PhaseMetricsTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final PhaseHandler resultHandler = new PhaseHandler() {
+            @Override
+            public void register(PhaseRegistration registration) throws PhaseRouterException {
+                registration.consumes(Type1.class);
+                registration.provides(TestResult.class);
+            }
+            @Override
+            public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+            }};
+        final PhaseHandler type1Handler = new PhaseHandler() {
+            @Override
+            public void register(PhaseRegistration registration) throws PhaseRouterException {
+                registration.consumes(Input1.class);
+                registration.provides(Type1.class);
+            }
+            @Override
+            public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                final Input1 input = ctx.consume(Input1.class);
+                if(input.text == null) {
+                    throw new PhaseRouterException("no text");
+                }
+                ctx.provide(Type1.class, new Type1(input.text));
+            }};
+
+        final PhaseMetrics metrics = new PhaseMetrics();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setListener(metrics)
+                .addPhase(resultHandler)
+                .addPhase(type1Handler)
+                .build();
+
+        assertEquals(new TestResult("one"), router.consume(TestResult.class, new Input1("one")));
+        assertEquals(new TestResult("two"), router.consume(TestResult.class, new Input1("two")));
+        try {
+            router.consume(TestResult.class, new Input1(null));
+            fail();
+        } catch(PhaseRouterException e) {
+            assertEquals("no text", e.getMessage());
+        }
+
+        assertEquals(1, metrics.getResolutionStats().getInvocations());
+
+        final PhaseMetrics.Stats type1Stats = metrics.getStats(type1Handler);
+        assertEquals(3, type1Stats.getInvocations());
+        assertEquals(1, type1Stats.getFailures());
+
+        final PhaseMetrics.Stats resultStats = metrics.getStats(resultHandler);
+        assertEquals(2, resultStats.getInvocations());
+        assertEquals(0, resultStats.getFailures());
+        long histogramTotal = 0;
+        for(long count : resultStats.getHistogram()) {
+            histogramTotal += count;
+        }
+        assertEquals(2, histogramTotal);
+        assertTrue(resultStats.getPercentileNanos(100) >= resultStats.getMeanNanos());
+
+        assertNull(metrics.getStats(new PhaseHandler() {
+            @Override
+            public void register(PhaseRegistration registration) {
+            }
+            @Override
+            public void process(PhaseProcessingContext ctx) {
+            }}));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseTrace;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PhaseTraceTestCase {
+
+    public static class Words {
+        final List<String> list;
+
+        Words(List<String> list) {
+            this.list = list;
+        }
+    }
+
+    private static class SplitPhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(String.class);
+            registration.provides(List.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(List.class, Arrays.asList(ctx.consume(String.class).split(" ")));
+        }
+    }
+
+    private static class EmptyListPhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(List.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(List.class, Collections.emptyList());
+        }
+    }
+
+    private static class WordsPhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(List.class);
+            registration.provides(Words.class);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Words.class, new Words(ctx.consume(List.class)));
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final SplitPhase split = new SplitPhase();
+        final EmptyListPhase empty = new EmptyListPhase();
+        final WordsPhase words = new WordsPhase();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(split)
+                .addPhase(empty)
+                .addPhase(words)
+                .build();
+
+        final PhaseTrace<Words> trace = router.consumeTraced(Words.class, "a b c");
+        assertEquals(Arrays.asList("a", "b", "c"), trace.getOutcome().list);
+        assertEquals(Arrays.asList(split, words), trace.getPlan().getHandlers());
+
+        final List<PhaseTrace.Event> events = trace.getEvents();
+        assertEquals(2, events.size());
+        assertEquals(split, events.get(0).getPhase().getHandler());
+        assertEquals(Long.valueOf(3), events.get(0).getOutcomeSizes().get(List.class));
+        assertEquals(1, events.get(0).getAlternatives().size());
+        assertEquals(empty, events.get(0).getAlternatives().get(0).getHandler());
+        assertEquals(words, events.get(1).getPhase().getHandler());
+        assertEquals(Long.valueOf(-1), events.get(1).getOutcomeSizes().get(Words.class));
+        assertTrue(events.get(1).getAlternatives().isEmpty());
+        assertTrue(events.get(0).getStartNanos() + events.get(0).getDurationNanos() <= events.get(1).getStartNanos());
+
+        final StringBuilder json = new StringBuilder();
+        trace.writeJson(json);
+        assertTrue(json.toString(), json.toString().startsWith("{\"type\":\"" + Words.class.getName() + "\""));
+        assertTrue(json.toString(), json.toString().contains("\"outcomes\":{\"java.util.List\":3}"));
+        assertTrue(json.toString(), json.toString().contains("\"alternatives\":[\"2 " + EmptyListPhase.class.getName() + "\"]"));
+
+        final StringBuilder chrome = new StringBuilder();
+        trace.writeChromeTrace(chrome);
+        assertTrue(chrome.toString(), chrome.toString().startsWith("{\"traceEvents\":[{\"name\":\"resolve " + Words.class.getName() + "\""));
+        assertTrue(chrome.toString(), chrome.toString().contains("{\"name\":\"" + SplitPhase.class.getName() + "\",\"cat\":\"phase\",\"ph\":\"X\""));
+    }
+
+    @Test
+    public void testProvidedOutcome() throws Exception {
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new SplitPhase())
+                .build();
+        final PhaseTrace<String> trace = router.consumeTraced(String.class, "a");
+        assertEquals("a", trace.getOutcome());
+        assertNull(trace.getPlan());
+        assertTrue(trace.getEvents().isEmpty());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PlanSnapshotTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class ResultHandler implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Type1.class);
+            registration.provides(TestResult.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(TestResult.class, new TestResult(ctx.consume(Type1.class).text));
+        }
+    }
+
+    public static class Type1Handler implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Input1.class);
+            registration.provides(Type1.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text + "1"));
+        }
+    }
+
+    public static class Input1Handler implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(Input1.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Input1.class, new Input1("phase"));
+        }
+    }
+
+    public static class CostedType1Handler implements PhaseHandler {
+        private final long cost;
+
+        CostedType1Handler(long cost) {
+            this.cost = cost;
+        }
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(Type1.class);
+            registration.setCost(cost);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type1.class, new Type1("costed"));
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .addPhase(new Input1Handler())
+                .build();
+        assertEquals(new TestResult("phase1"), router.consume(TestResult.class));
+        assertEquals(new TestResult("input1"), router.consume(TestResult.class, new Input1("input")));
+        router.consumeAll(TestResult.class, Type1.class);
+        assertEquals(3, router.getPlanCacheMisses());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, router.exportPlans(out));
+
+        router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .addPhase(new Input1Handler())
+                .build();
+        assertEquals(3, router.importPlans(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(new TestResult("phase1"), router.consume(TestResult.class));
+        assertEquals(new TestResult("input1"), router.consume(TestResult.class, new Input1("input")));
+        assertEquals("phase1", router.consumeAll(TestResult.class, Type1.class).get(Type1.class).text);
+        assertEquals(0, router.getPlanCacheMisses());
+        assertEquals(3, router.getPlanCacheHits());
+    }
+
+    @Test
+    public void testDifferentHandlers() throws Exception {
+
+        PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .addPhase(new Input1Handler())
+                .build();
+        router.consume(TestResult.class);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        router.exportPlans(out);
+
+        router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .build();
+        try {
+            router.importPlans(new ByteArrayInputStream(out.toByteArray()));
+            fail("The plans should have been rejected");
+        } catch(PhaseRouterException e) {
+            assertEquals("The plans were exported by a router with different phase handlers", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDifferentCosts() throws Exception {
+
+        PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .addPhase(new Input1Handler())
+                .addPhase(new CostedType1Handler(1000))
+                .build();
+        assertEquals(new TestResult("phase1"), router.consume(TestResult.class));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        router.exportPlans(out);
+
+        router = PhaseRouterFactory.getInstance()
+                .addPhase(new ResultHandler())
+                .addPhase(new Type1Handler())
+                .addPhase(new Input1Handler())
+                .addPhase(new CostedType1Handler(0))
+                .build();
+        try {
+            router.importPlans(new ByteArrayInputStream(out.toByteArray()));
+            fail("The plans should have been rejected");
+        } catch(PhaseRouterException e) {
+            assertEquals("The plans were exported by a router with different phase handlers", e.getMessage());
+        }
+    }
+}
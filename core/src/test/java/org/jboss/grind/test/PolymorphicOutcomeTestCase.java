@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PolymorphicOutcomeTestCase {
+
+    public interface Named {
+        String getName();
+    }
+
+    public interface Shape extends Named {
+    }
+
+    public static class Circle implements Shape {
+        @Override
+        public String getName() {
+            return "circle";
+        }
+    }
+
+    public static class Square implements Shape {
+        @Override
+        public String getName() {
+            return "square";
+        }
+    }
+
+    public static class Description {
+        final String text;
+
+        Description(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class CirclePhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(Circle.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Circle.class, new Circle());
+        }
+    }
+
+    private static class DescriptionPhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Shape.class);
+            registration.provides(Description.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Description.class, new Description("a " + ctx.consume(Shape.class).getName()));
+        }
+    }
+
+    private static PhaseRouterFactory factory() throws PhaseRouterException {
+        return PhaseRouterFactory.getInstance()
+                .addPhase(new CirclePhase())
+                .addPhase(new DescriptionPhase());
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final PhaseRouter router = factory().setPolymorphic(true).build();
+        assertEquals("a circle", router.consume(Description.class).text);
+        assertTrue(router.consume(Shape.class) instanceof Circle);
+        // not registered by any handler
+        assertTrue(router.consume(Named.class) instanceof Circle);
+    }
+
+    @Test
+    public void testProvidedSubtype() throws Exception {
+        final PhaseRouter router = factory().setPolymorphic(true).build();
+        assertEquals("a square", router.consume(Description.class, new Square()).text);
+        router.provide(new Square());
+        assertEquals("a square", router.consume(Description.class).text);
+        assertTrue(router.consume(Shape.class) instanceof Square);
+    }
+
+    @Test
+    public void testExactTypes() throws Exception {
+        final PhaseRouter router = factory().build();
+        try {
+            router.consume(Description.class);
+            fail();
+        } catch(PhaseRouterException e) {
+            assertEquals("Failed to resolve phase flow for the outcome of type " + Description.class.getName(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class PooledContextTestCase {
+
+    public static class Input {
+        final int value;
+
+        Input(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Parsed {
+        final int value;
+
+        Parsed(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Result {
+        final int value;
+
+        Result(int value) {
+            this.value = value;
+        }
+    }
+
+    /** Pre-created outcomes, so that the handlers don't allocate */
+    private static final Parsed[] PARSED = new Parsed[10];
+    private static final Result[] RESULTS = new Result[10];
+    static {
+        for(int i = 0; i < 10; ++i) {
+            PARSED[i] = new Parsed(i);
+            RESULTS[i] = new Result(i);
+        }
+    }
+
+    private static class ParsePhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Input.class);
+            registration.provides(Parsed.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final int value = ctx.consume(Input.class).value;
+            if(value < 0) {
+                throw new PhaseRouterException("Negative input");
+            }
+            ctx.provide(Parsed.class, PARSED[value]);
+        }
+    }
+
+    private static class ResultPhase implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Parsed.class);
+            registration.provides(Result.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Result.class, RESULTS[ctx.consume(Parsed.class).value]);
+        }
+    }
+
+    /**
+     * Consumes an outcome from the same router while being processed
+     */
+    private static class NestedPhase implements PhaseHandler {
+
+        PhaseRouter router;
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Result.class);
+            registration.provides(String.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final int value = ctx.consume(Result.class).value;
+            final Result next = router.consume(Result.class, new Input((value + 1) % 10));
+            ctx.provide(String.class, value + "," + next.value);
+            assertEquals(value, ctx.consume(Result.class).value);
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final NestedPhase nested = new NestedPhase();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setPooledContexts(true)
+                .addPhase(new ParsePhase())
+                .addPhase(new ResultPhase())
+                .addPhase(nested)
+                .build();
+        nested.router = router;
+
+        for(int i = 0; i < 10; ++i) {
+            assertEquals(i, router.consume(Result.class, new Input(i)).value);
+        }
+        assertEquals("3,4", router.consume(String.class, new Input(3)));
+
+        try {
+            router.consume(Result.class, new Input(-1));
+            fail("Negative input was accepted");
+        } catch(PhaseRouterException e) {
+            assertEquals("Negative input", e.getMessage());
+        }
+        assertEquals(5, router.consume(Result.class, new Input(5)).value);
+
+        // the values provided to the previous invocations are not visible
+        try {
+            router.consume(Result.class);
+            fail("Outcome produced without input");
+        } catch(PhaseRouterException e) {
+        }
+        router.provide(new Input(7));
+        assertEquals(7, router.consume(Result.class).value);
+    }
+
+    @Test
+    public void testAllocationFree() throws Exception {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setPooledContexts(true)
+                .addPhase(new ParsePhase())
+                .addPhase(new ResultPhase())
+                .build();
+        final Object[][] inputs = new Object[10][];
+        for(int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new Object[] {new Input(i)};
+        }
+        final long threadId = Thread.currentThread().getId();
+        final int invocations = 10000;
+        for(int i = 0; i < invocations * 10; ++i) {
+            router.consume(Result.class, inputs[i % 10]);
+        }
+        // what the measurement itself allocates
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        final long baseline = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        allocated = threads.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < invocations; ++i) {
+            router.consume(Result.class, inputs[i % 10]);
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated - baseline;
+        assertEquals("Bytes allocated by " + invocations + " invocations", 0, allocated);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.jboss.grind.CachePolicy;
+import org.jboss.grind.OutcomeSerializer;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class SpilledOutcomeTestCase {
+
+    public static class Blob {
+        final ByteBuffer data;
+
+        Blob(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    private static class BlobSerializer implements OutcomeSerializer<Blob> {
+        @Override
+        public long sizeOf(Blob outcome) {
+            return outcome.data.remaining();
+        }
+
+        @Override
+        public void write(Blob outcome, WritableByteChannel channel) throws IOException {
+            final ByteBuffer data = outcome.data.duplicate();
+            while(data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        @Override
+        public Blob read(ByteBuffer buffer) throws IOException {
+            return new Blob(buffer);
+        }
+    }
+
+    private static class BlobPhase implements PhaseHandler {
+
+        private final int size;
+
+        BlobPhase(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.provides(Blob.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final byte[] bytes = new byte[size];
+            for(int i = 0; i < bytes.length; ++i) {
+                bytes[i] = (byte) i;
+            }
+            ctx.provide(Blob.class, new Blob(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    private static class ChecksumPhase implements PhaseHandler {
+
+        final List<ByteBuffer> consumed = new ArrayList<>();
+
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Blob.class);
+            registration.provides(Long.class);
+        }
+
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            final ByteBuffer data = ctx.consume(Blob.class).data;
+            consumed.add(data);
+            long sum = 0;
+            while(data.hasRemaining()) {
+                sum += data.get();
+            }
+            ctx.provide(Long.class, sum);
+        }
+    }
+
+    private static long checksum(int size) {
+        long sum = 0;
+        for(int i = 0; i < size; ++i) {
+            sum += (byte) i;
+        }
+        return sum;
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final Path dir = Files.createTempDirectory("grind-spill");
+        try {
+            final ChecksumPhase checksum = new ChecksumPhase();
+            final PhaseRouter router = PhaseRouterFactory.getInstance()
+                    .setOutcomeSerializer(Blob.class, new BlobSerializer())
+                    .setSpillThreshold(1024)
+                    .setSpillDirectory(dir)
+                    .addPhase(new BlobPhase(4096))
+                    .addPhase(checksum)
+                    .build();
+
+            assertEquals(Long.valueOf(checksum(4096)), router.consume(Long.class));
+            final ByteBuffer data = checksum.consumed.get(0);
+            assertTrue(data.isDirect());
+            assertTrue(data.isReadOnly());
+            assertEquals(4096, data.capacity());
+
+            final Blob blob = router.consume(Blob.class);
+            assertTrue(blob.data.isDirect());
+            final byte[] expected = new byte[4096];
+            for(int i = 0; i < expected.length; ++i) {
+                expected[i] = (byte) i;
+            }
+            assertEquals(ByteBuffer.wrap(expected), blob.data);
+
+            // the temporary files are deleted once mapped
+            try(Stream<Path> files = Files.list(dir)) {
+                assertFalse(files.findAny().isPresent());
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        final ChecksumPhase checksum = new ChecksumPhase();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setOutcomeSerializer(Blob.class, new BlobSerializer())
+                .setSpillThreshold(1024)
+                .addPhase(new BlobPhase(100))
+                .addPhase(checksum)
+                .build();
+
+        assertEquals(Long.valueOf(checksum(100)), router.consume(Long.class));
+        assertFalse(checksum.consumed.get(0).isDirect());
+    }
+
+    @Test
+    public void testCachedConsumer() throws Exception {
+        final ChecksumPhase checksum = new ChecksumPhase() {
+            @Override
+            public void register(PhaseRegistration registration) throws PhaseRouterException {
+                registration.consumes(Blob.class);
+                registration.provides(Long.class, CachePolicy.maxSize(16));
+            }
+        };
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setOutcomeSerializer(Blob.class, new BlobSerializer())
+                .setSpillThreshold(1024)
+                .addPhase(new BlobPhase(4096))
+                .addPhase(checksum)
+                .build();
+
+        for(int i = 0; i < 3; ++i) {
+            assertEquals(Long.valueOf(checksum(4096)), router.consume(Long.class));
+        }
+        // spilled outcomes with the same content are the same cache key
+        assertEquals(1, checksum.consumed.size());
+        assertTrue(checksum.consumed.get(0).isDirect());
+    }
+}
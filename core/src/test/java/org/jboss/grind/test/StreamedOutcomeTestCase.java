@@ -0,0 +1,286 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseProcessingContext;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamedOutcomeTestCase {
+
+    public static class Count {
+        final int value;
+
+        Count(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Element {
+        final int value;
+
+        Element(int value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final AtomicInteger provided = new AtomicInteger();
+        final AtomicInteger maxBuffered = new AtomicInteger();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setStreamBufferSize(4)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Element.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        int consumed = 0;
+                        long sum = 0;
+                        for(Element element : ctx.consumeStream(Element.class)) {
+                            ++consumed;
+                            maxBuffered.accumulateAndGet(provided.get() - consumed, Math::max);
+                            sum += element.value;
+                        }
+                        ctx.provide(TestResult.class, new TestResult(consumed + ":" + sum));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Count.class);
+                        registration.providesStream(Element.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        final int count = ctx.consume(Count.class).value;
+                        for(int i = 1; i <= count; ++i) {
+                            ctx.provide(Element.class, new Element(i));
+                            provided.incrementAndGet();
+                        }
+                    }})
+                .build();
+
+        assertEquals(new TestResult("1000:500500"), router.consume(TestResult.class, new Count(1000)));
+        // the provider is blocked while the buffer is full
+        assertTrue(maxBuffered.get() <= 5);
+
+        // an outcome provided as a single value is consumed as a stream of one element
+        provided.set(0);
+        assertEquals(new TestResult("1:7"), router.consume(TestResult.class, new Element(7)));
+    }
+
+    @Test
+    public void testProviderFailure() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .setStreamBufferSize(2)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Element.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        int consumed = 0;
+                        for(Element element : ctx.consumeStream(Element.class)) {
+                            consumed += element.value;
+                        }
+                        ctx.provide(TestResult.class, new TestResult(String.valueOf(consumed)));
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.providesStream(Element.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        for(int i = 0; i < 10; ++i) {
+                            ctx.provide(Element.class, new Element(i));
+                        }
+                        throw new PhaseRouterException("Failed to provide elements");
+                    }})
+                .build();
+
+        try {
+            router.consume(TestResult.class);
+            fail("The provider failure should have been propagated");
+        } catch(IllegalStateException e) {
+            assertEquals("Failed to provide elements", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Router whose phase consuming the stream fails after taking
+     * the first of many elements
+     */
+    private static PhaseRouter failingConsumerRouter() throws PhaseRouterException {
+        return PhaseRouterFactory.getInstance()
+                .setStreamBufferSize(1)
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.consumes(Element.class);
+                        registration.provides(TestResult.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        ctx.consumeStream(Element.class).iterator().next();
+                        throw new PhaseRouterException("Failed to consume elements");
+                    }})
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.providesStream(Element.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                        for(int i = 0; i < 100; ++i) {
+                            ctx.provide(Element.class, new Element(i));
+                        }
+                    }})
+                .build();
+    }
+
+    @Test
+    public void testConsumerFailureInBatch() throws Exception {
+        try {
+            failingConsumerRouter().consumeBatch(TestResult.class, Arrays.asList(new Object[0], new Object[0]));
+            fail("The consumer failure should have been propagated");
+        } catch(PhaseRouterException e) {
+            assertEquals("Failed to consume elements", e.getMessage());
+        }
+        assertNoProducersLeft();
+    }
+
+    @Test
+    public void testConsumerFailureTraced() throws Exception {
+        try {
+            failingConsumerRouter().consumeTraced(TestResult.class);
+            fail("The consumer failure should have been propagated");
+        } catch(PhaseRouterException e) {
+            assertEquals("Failed to consume elements", e.getMessage());
+        }
+        assertNoProducersLeft();
+    }
+
+    /**
+     * Waits for the threads processing the phases providing streamed
+     * outcomes to stop providing elements, failing if they don't.
+     * The threads themselves are pooled, so they remain alive.
+     */
+    private static void assertNoProducersLeft() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(isProducerRunning()) {
+            assertTrue("Stream producer is still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean isProducerRunning() {
+        for(Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+            if("grind-stream-producer".equals(thread.getKey().getName())) {
+                for(StackTraceElement frame : thread.getValue()) {
+                    if(frame.getClassName().equals("org.jboss.grind.OutcomeStream")) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testStreamAndSingleValue() throws Exception {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.providesStream(Element.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                    }});
+        try {
+            factory.addPhase(new PhaseHandler() {
+                @Override
+                public void register(PhaseRegistration registration) throws PhaseRouterException {
+                    registration.provides(Element.class);
+                }
+                @Override
+                public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                }});
+            fail("A streamed outcome can't be provided as a single value");
+        } catch(PhaseRouterException e) {
+            assertEquals("Outcome of type " + Element.class.getName() + " is provided as a stream", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMultipleStreamConsumers() throws Exception {
+        final PhaseHandler[] consumers = new PhaseHandler[2];
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance()
+                .addPhase(new PhaseHandler() {
+                    @Override
+                    public void register(PhaseRegistration registration) throws PhaseRouterException {
+                        registration.providesStream(Element.class);
+                    }
+                    @Override
+                    public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                    }});
+        for(int i = 0; i < consumers.length; ++i) {
+            final Class<?> providedType = i == 0 ? Count.class : TestResult.class;
+            consumers[i] = new PhaseHandler() {
+                @Override
+                public void register(PhaseRegistration registration) throws PhaseRouterException {
+                    registration.consumes(Element.class);
+                    registration.provides(providedType);
+                }
+                @Override
+                public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+                }};
+            factory.addPhase(consumers[i]);
+        }
+        try {
+            factory.build();
+            fail("A stream can be consumed by only one phase");
+        } catch(PhaseRouterException e) {
+            assertEquals("Outcome stream of type " + Element.class.getName() + " is consumed by more than one phase: "
+                    + consumers[0] + ", " + consumers[1], e.getMessage());
+        }
+    }
+}
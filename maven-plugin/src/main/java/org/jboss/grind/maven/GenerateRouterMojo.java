@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseRouterException;
+
+/**
+ * Generates a router for a fixed set of phase handlers and target outcome
+ * types (see {@link RouterGenerator}) and adds it to the compile sources
+ * of the project.
+ *
+ * <p>The handlers and the outcome types are loaded from the compile
+ * classpath of the project, i.e. they have to be available in its
+ * dependencies.
+ *
+ * @author Alexey Loubyansky
+ */
+@Mojo(name = "generate-router", defaultPhase = LifecyclePhase.GENERATE_SOURCES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class GenerateRouterMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * Fully qualified name of the generated router
+     */
+    @Parameter(required = true)
+    private String className;
+
+    /**
+     * Fully qualified names of the phase handler classes
+     */
+    @Parameter(required = true)
+    private List<String> handlers;
+
+    /**
+     * Fully qualified names of the outcome types the router should produce
+     */
+    @Parameter(required = true)
+    private List<String> targets;
+
+    /**
+     * Fully qualified names of the types of the values the consume methods
+     * of the router accept
+     */
+    @Parameter
+    private List<String> inputTypes;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/grind", required = true)
+    private File outputDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        final RouterGenerator generator = new RouterGenerator(className);
+        final String source;
+        try(URLClassLoader cl = newClassLoader()) {
+            for(String handler : handlers) {
+                generator.addHandler(cl.loadClass(handler).asSubclass(PhaseHandler.class));
+            }
+            for(String target : targets) {
+                generator.addTarget(cl.loadClass(target));
+            }
+            if(inputTypes != null) {
+                final Class<?>[] types = new Class<?>[inputTypes.size()];
+                for(int i = 0; i < types.length; ++i) {
+                    types[i] = cl.loadClass(inputTypes.get(i));
+                }
+                generator.setInputTypes(types);
+            }
+            source = generator.generate();
+        } catch (ClassNotFoundException | ClassCastException | PhaseRouterException | IOException e) {
+            throw new MojoExecutionException("Failed to generate router " + className, e);
+        }
+
+        final Path file = outputDirectory.toPath().resolve(className.replace('.', File.separatorChar) + ".java");
+        try {
+            Files.createDirectories(file.getParent());
+            try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + file, e);
+        }
+        project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+    }
+
+    private URLClassLoader newClassLoader() throws MojoExecutionException {
+        final List<String> elements;
+        try {
+            elements = project.getCompileClasspathElements();
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Failed to resolve the compile classpath", e);
+        }
+        final URL[] urls = new URL[elements.size()];
+        try {
+            for(int i = 0; i < urls.length; ++i) {
+                urls[i] = new File(elements.get(i)).toURI().toURL();
+            }
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException("Failed to create the classpath", e);
+        }
+        return new URLClassLoader(urls, getClass().getClassLoader());
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.maven;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.grind.CompiledRouter;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhasePlan;
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.PhaseRouterFactory;
+
+/**
+ * Generates the source of a {@link CompiledRouter} for a fixed set of
+ * phase handlers. For every target outcome type the generated router
+ * includes a method named {@code consume<TargetSimpleName>} accepting
+ * the values of the input types, which invokes the handlers in the order
+ * resolved at generation time.
+ *
+ * @author Alexey Loubyansky
+ */
+public class RouterGenerator {
+
+    private final String className;
+    private final List<Class<? extends PhaseHandler>> handlers = new ArrayList<>();
+    private final List<Class<?>> targets = new ArrayList<>();
+    private Class<?>[] inputTypes = new Class<?>[0];
+
+    /**
+     * @param className  fully qualified name of the generated router
+     */
+    public RouterGenerator(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Adds a handler class, which must be public and have
+     * a public no-arg constructor
+     *
+     * @param handler  handler class
+     * @return  this generator
+     */
+    public RouterGenerator addHandler(Class<? extends PhaseHandler> handler) {
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Adds an outcome type the router should be able to produce
+     *
+     * @param target  outcome type
+     * @return  this generator
+     */
+    public RouterGenerator addTarget(Class<?> target) {
+        targets.add(target);
+        return this;
+    }
+
+    /**
+     * Types of the values the consume methods of the router accept,
+     * in the order of the method parameters
+     *
+     * @param inputTypes  input types
+     * @return  this generator
+     */
+    public RouterGenerator setInputTypes(Class<?>... inputTypes) {
+        this.inputTypes = inputTypes;
+        return this;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Resolves the plans for the targets and generates the router source
+     *
+     * @return  router source
+     * @throws PhaseRouterException  in case a plan could not be resolved
+     */
+    public String generate() throws PhaseRouterException {
+        final PhaseRouterFactory factory = PhaseRouterFactory.getInstance();
+        final Map<PhaseHandler, Integer> handlerIndexes = new IdentityHashMap<>(handlers.size());
+        for(Class<? extends PhaseHandler> handlerClass : handlers) {
+            checkAccessible(handlerClass);
+            final PhaseHandler handler;
+            try {
+                handler = handlerClass.getConstructor().newInstance();
+            } catch (Exception e) {
+                throw new PhaseRouterException("Failed to instantiate " + handlerClass.getName() + ": " + e);
+            }
+            handlerIndexes.put(handler, handlerIndexes.size());
+            factory.addPhase(handler);
+        }
+        final PhaseRouter router = factory.build();
+
+        final Map<Class<?>, String> outcomeFields = new LinkedHashMap<>();
+        for(Class<?> inputType : inputTypes) {
+            checkAccessible(inputType);
+            outcomeField(outcomeFields, inputType);
+        }
+        final Map<Class<?>, int[]> plans = new LinkedHashMap<>(targets.size());
+        for(Class<?> target : targets) {
+            checkAccessible(target);
+            outcomeField(outcomeFields, target);
+            final PhasePlan plan = router.getPlan(target, inputTypes);
+            final List<PhaseHandler> planHandlers = plan.getHandlers();
+            final int[] phaseIndexes = new int[planHandlers.size()];
+            for(int i = 0; i < phaseIndexes.length; ++i) {
+                phaseIndexes[i] = handlerIndexes.get(planHandlers.get(i));
+            }
+            plans.put(target, phaseIndexes);
+        }
+
+        final int lastDot = className.lastIndexOf('.');
+        final StringBuilder buf = new StringBuilder();
+        if(lastDot > 0) {
+            buf.append("package ").append(className, 0, lastDot).append(";\n\n");
+        }
+        buf.append("/**\n");
+        buf.append(" * Router generated by ").append(RouterGenerator.class.getName()).append(".\n");
+        buf.append(" */\n");
+        buf.append("public final class ").append(className.substring(lastDot + 1)).append(" extends org.jboss.grind.CompiledRouter {\n\n");
+
+        buf.append("    private static final Class<?>[] INPUT_TYPES = {");
+        for(int i = 0; i < inputTypes.length; ++i) {
+            buf.append(i == 0 ? "" : ", ").append(inputTypes[i].getCanonicalName()).append(".class");
+        }
+        buf.append("};\n\n");
+        for(int i = 0; i < handlers.size(); ++i) {
+            buf.append("    private final ").append(handlers.get(i).getCanonicalName()).append(" phase").append(i).append(";\n");
+        }
+        for(String field : outcomeFields.values()) {
+            buf.append("    private final int ").append(field).append(";\n");
+        }
+        buf.append('\n');
+
+        final String simpleName = className.substring(lastDot + 1);
+        buf.append("    public ").append(simpleName).append("() throws org.jboss.grind.PhaseRouterException {\n");
+        buf.append("        this(");
+        for(int i = 0; i < handlers.size(); ++i) {
+            buf.append(i == 0 ? "" : ", ").append("new ").append(handlers.get(i).getCanonicalName()).append("()");
+        }
+        buf.append(");\n");
+        buf.append("    }\n\n");
+
+        buf.append("    public ").append(simpleName).append('(');
+        for(int i = 0; i < handlers.size(); ++i) {
+            buf.append(i == 0 ? "" : ", ").append(handlers.get(i).getCanonicalName()).append(" phase").append(i);
+        }
+        buf.append(") throws org.jboss.grind.PhaseRouterException {\n");
+        buf.append("        super(");
+        for(int i = 0; i < handlers.size(); ++i) {
+            buf.append(i == 0 ? "" : ", ").append("phase").append(i);
+        }
+        buf.append(");\n");
+        for(int i = 0; i < handlers.size(); ++i) {
+            buf.append("        this.phase").append(i).append(" = phase").append(i).append(";\n");
+        }
+        for(Map.Entry<Class<?>, String> field : outcomeFields.entrySet()) {
+            buf.append("        ").append(field.getValue()).append(" = id(").append(field.getKey().getCanonicalName()).append(".class);\n");
+        }
+        for(Map.Entry<Class<?>, int[]> plan : plans.entrySet()) {
+            buf.append("        checkPlan(").append(plan.getKey().getCanonicalName()).append(".class, INPUT_TYPES");
+            for(int i : plan.getValue()) {
+                buf.append(", ").append(i);
+            }
+            buf.append(");\n");
+        }
+        buf.append("    }\n");
+
+        final Set<String> methodNames = new HashSet<>();
+        for(Map.Entry<Class<?>, int[]> plan : plans.entrySet()) {
+            final Class<?> target = plan.getKey();
+            String methodName = "consume" + target.getSimpleName();
+            if(!methodNames.add(methodName)) {
+                methodName = methodName + methodNames.size();
+                methodNames.add(methodName);
+            }
+            buf.append('\n');
+            buf.append("    public ").append(target.getCanonicalName()).append(' ').append(methodName).append('(');
+            for(int i = 0; i < inputTypes.length; ++i) {
+                buf.append(i == 0 ? "" : ", ").append(inputTypes[i].getCanonicalName()).append(" input").append(i);
+            }
+            buf.append(") throws org.jboss.grind.PhaseRouterException {\n");
+            buf.append("        final org.jboss.grind.PhaseProcessingContext ctx = newContext();\n");
+            for(int i = 0; i < inputTypes.length; ++i) {
+                final String type = inputTypes[i].getCanonicalName();
+                buf.append("        provide(ctx, ").append(outcomeFields.get(inputTypes[i])).append(", ").append(type).append(".class, input").append(i).append(");\n");
+            }
+            for(int i : plan.getValue()) {
+                buf.append("        phase").append(i).append(".process(ctx);\n");
+            }
+            buf.append("        return consume(ctx, ").append(outcomeFields.get(target)).append(", ").append(target.getCanonicalName()).append(".class);\n");
+            buf.append("    }\n");
+        }
+        buf.append("}\n");
+        return buf.toString();
+    }
+
+    private static void outcomeField(Map<Class<?>, String> fields, Class<?> type) {
+        if(!fields.containsKey(type)) {
+            fields.put(type, "outcome" + fields.size());
+        }
+    }
+
+    private static void checkAccessible(Class<?> type) throws PhaseRouterException {
+        Class<?> c = type;
+        while(c != null) {
+            if(!Modifier.isPublic(c.getModifiers())) {
+                throw new PhaseRouterException(type.getName() + " is not public");
+            }
+            c = c.getEnclosingClass();
+        }
+        if(type.getCanonicalName() == null) {
+            throw new PhaseRouterException(type.getName() + " has no canonical name");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.PhaseProcessingContext;
+import org.jboss.grind.PhaseRegistration;
+import org.jboss.grind.PhaseRouterException;
+import org.jboss.grind.maven.RouterGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class RouterGeneratorTestCase {
+
+    public static class Input1 {
+        final String text;
+
+        public Input1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Type1 {
+        final String text;
+
+        public Type1(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Result {
+        public final String text;
+
+        public Result(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class ResultHandler implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Type1.class);
+            registration.provides(Result.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Result.class, new Result(ctx.consume(Type1.class).text + "!"));
+        }
+    }
+
+    public static class Type1Handler implements PhaseHandler {
+        @Override
+        public void register(PhaseRegistration registration) throws PhaseRouterException {
+            registration.consumes(Input1.class);
+            registration.provides(Type1.class);
+        }
+        @Override
+        public void process(PhaseProcessingContext ctx) throws PhaseRouterException {
+            ctx.provide(Type1.class, new Type1(ctx.consume(Input1.class).text.toUpperCase()));
+        }
+    }
+
+    private Path workDir;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("grind-router");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if(workDir != null) {
+            Files.walk(workDir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void mainTest() throws Exception {
+        final RouterGenerator generator = new RouterGenerator("org.jboss.grind.maven.test.gen.TestRouter")
+                .addHandler(ResultHandler.class)
+                .addHandler(Type1Handler.class)
+                .addTarget(Result.class)
+                .setInputTypes(Input1.class);
+        final String source = generator.generate();
+        assertTrue(source, source.indexOf("phase1.process(ctx);") < source.indexOf("phase0.process(ctx);"));
+
+        try(URLClassLoader cl = compile(generator.getClassName(), source)) {
+            final Object router = cl.loadClass(generator.getClassName()).getConstructor().newInstance();
+            final Result result = (Result) router.getClass().getMethod("consumeResult", Input1.class).invoke(router, new Input1("abc"));
+            assertEquals("ABC!", result.text);
+        }
+    }
+
+    @Test
+    public void testUnresolvable() throws Exception {
+        try {
+            new RouterGenerator("TestRouter")
+                    .addHandler(ResultHandler.class)
+                    .addTarget(Result.class)
+                    .generate();
+            fail("The plan for Result should not be resolvable");
+        } catch(PhaseRouterException e) {
+            // expected
+        }
+    }
+
+    private URLClassLoader compile(String className, String source) throws IOException, URISyntaxException {
+        final Path sourceFile = workDir.resolve(className.replace('.', File.separatorChar) + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+        final String classpath = location(PhaseHandler.class) + File.pathSeparator + location(getClass());
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-cp", classpath, "-d", workDir.toString(), sourceFile.toString()));
+        return new URLClassLoader(new URL[] {workDir.toUri().toURL()}, getClass().getClassLoader());
+    }
+
+    private static String location(Class<?> cls) throws URISyntaxException {
+        return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+}
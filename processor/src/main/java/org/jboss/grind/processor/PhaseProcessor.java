@@ -0,0 +1,344 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import org.jboss.grind.Consumes;
+import org.jboss.grind.PhaseHandler;
+import org.jboss.grind.Provides;
+
+/**
+ * Generates a {@link PhaseHandler} for every method annotated with
+ * {@link Provides}. The generated handler registers the types of
+ * the parameters as consumed and the return type as provided and
+ * invokes the method passing it the consumed outcomes looked up
+ * by the keys obtained during the registration, so neither
+ * the registration nor the processing involves reflection.
+ *
+ * <p>The generated handlers that can be instantiated with a no-arg
+ * constructor are listed in {@code META-INF/services/org.jboss.grind.PhaseHandler}.
+ * The handlers already listed in the file found in the class output are kept,
+ * so that incremental compilations don't drop the handlers generated before.
+ *
+ * @author Alexey Loubyansky
+ */
+public class PhaseProcessor extends AbstractProcessor {
+
+    private static final String HANDLER_SUFFIX = "Phase";
+    private static final String SERVICES = "META-INF/services/" + PhaseHandler.class.getName();
+
+    private final Set<String> services = new LinkedHashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Provides.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(roundEnv.processingOver()) {
+            writeServices();
+            return false;
+        }
+        final Set<String> generated = new HashSet<>();
+        for(ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(Provides.class))) {
+            if(isValid(method)) {
+                final TypeElement type = (TypeElement) method.getEnclosingElement();
+                final String handlerName = handlerName(type, method);
+                if(!generated.add(type.getQualifiedName() + "." + handlerName)) {
+                    error(method, "Phase handler " + handlerName + " has already been generated for another method " + method.getSimpleName());
+                    continue;
+                }
+                try {
+                    generate(type, method, handlerName);
+                } catch (IOException e) {
+                    error(method, "Failed to generate phase handler " + handlerName + ": " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isValid(ExecutableElement method) {
+        boolean valid = true;
+        final Element enclosing = method.getEnclosingElement();
+        if(enclosing.getKind() != ElementKind.CLASS || ((TypeElement) enclosing).getNestingKind() == NestingKind.LOCAL
+                || ((TypeElement) enclosing).getNestingKind() == NestingKind.ANONYMOUS) {
+            error(method, "@Provides methods have to be declared in top level or member classes");
+            valid = false;
+        } else if(((TypeElement) enclosing).getNestingKind() == NestingKind.MEMBER && !enclosing.getModifiers().contains(Modifier.STATIC)) {
+            error(method, "@Provides methods can't be declared in inner classes");
+            valid = false;
+        }
+        if(method.getModifiers().contains(Modifier.PRIVATE)) {
+            error(method, "@Provides methods can't be private");
+            valid = false;
+        }
+        if(!method.getTypeParameters().isEmpty()) {
+            error(method, "@Provides methods can't declare type parameters");
+            valid = false;
+        }
+        if(method.getReturnType().getKind() != TypeKind.DECLARED && method.getReturnType().getKind() != TypeKind.ARRAY) {
+            error(method, "@Provides methods have to return an object");
+            valid = false;
+        }
+        if(method.getAnnotation(Provides.class).cost() < 0) {
+            error(method, "@Provides cost can't be negative");
+            valid = false;
+        }
+        for(VariableElement param : method.getParameters()) {
+            if(param.getAnnotation(Consumes.class) == null) {
+                error(param, "Parameters of @Provides methods have to be annotated with @Consumes");
+                valid = false;
+            } else if(param.asType().getKind() != TypeKind.DECLARED && param.asType().getKind() != TypeKind.ARRAY) {
+                error(param, "Consumed outcomes can't be of primitive types");
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    private void generate(TypeElement type, ExecutableElement method, String handlerName) throws IOException {
+        final String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String qualifiedName = pkg.isEmpty() ? handlerName : pkg + "." + handlerName;
+        final boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+        final String targetType = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+        final List<String> consumedTypes = new ArrayList<>(method.getParameters().size());
+        boolean generic = isGeneric(method.getReturnType());
+        for(VariableElement param : method.getParameters()) {
+            consumedTypes.add(erasure(param.asType()));
+            generic |= isGeneric(param.asType());
+        }
+        final String providedType = erasure(method.getReturnType());
+        final boolean wrapExceptions = throwsCheckedExceptions(method);
+        final boolean instantiable = isStatic || hasPublicNoArgConstructor(type);
+
+        final StringBuilder buf = new StringBuilder();
+        if(!pkg.isEmpty()) {
+            buf.append("package ").append(pkg).append(";\n\n");
+        }
+        buf.append("/**\n");
+        buf.append(" * Phase handler invoking {@link ").append(targetType).append('#').append(method.getSimpleName()).append("},\n");
+        buf.append(" * generated by ").append(PhaseProcessor.class.getName()).append(".\n");
+        buf.append(" */\n");
+        if(generic) {
+            buf.append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n");
+        }
+        buf.append("public final class ").append(handlerName).append(" implements org.jboss.grind.PhaseHandler {\n\n");
+        if(!isStatic) {
+            buf.append("    private final ").append(targetType).append(" target;\n");
+        }
+        for(int i = 0; i < consumedTypes.size(); ++i) {
+            buf.append("    private org.jboss.grind.OutcomeKey<").append(consumedTypes.get(i)).append("> consumed").append(i).append(";\n");
+        }
+        buf.append("    private org.jboss.grind.OutcomeKey<").append(providedType).append("> provided;\n\n");
+
+        if(isStatic) {
+            buf.append("    public ").append(handlerName).append("() {\n");
+            buf.append("    }\n\n");
+        } else {
+            if(instantiable) {
+                buf.append("    public ").append(handlerName).append("() {\n");
+                buf.append("        this(new ").append(targetType).append("());\n");
+                buf.append("    }\n\n");
+            }
+            buf.append("    public ").append(handlerName).append('(').append(targetType).append(" target) {\n");
+            buf.append("        this.target = target;\n");
+            buf.append("    }\n\n");
+        }
+
+        buf.append("    @Override\n");
+        buf.append("    public void register(org.jboss.grind.PhaseRegistration registration) throws org.jboss.grind.PhaseRouterException {\n");
+        for(int i = 0; i < consumedTypes.size(); ++i) {
+            buf.append("        registration.consumes(").append(consumedTypes.get(i)).append(".class);\n");
+            buf.append("        consumed").append(i).append(" = registration.getKey(").append(consumedTypes.get(i)).append(".class);\n");
+        }
+        buf.append("        registration.provides(").append(providedType).append(".class);\n");
+        buf.append("        provided = registration.getKey(").append(providedType).append(".class);\n");
+        final long cost = method.getAnnotation(Provides.class).cost();
+        if(cost != 0) {
+            buf.append("        registration.setCost(").append(cost).append("L);\n");
+        }
+        buf.append("    }\n\n");
+
+        buf.append("    @Override\n");
+        buf.append("    public void process(org.jboss.grind.PhaseProcessingContext ctx) throws org.jboss.grind.PhaseRouterException {\n");
+        String indent = "        ";
+        if(wrapExceptions) {
+            buf.append(indent).append("try {\n");
+            indent += "    ";
+        }
+        buf.append(indent).append("ctx.provide(provided, ").append(isStatic ? targetType : "target").append('.').append(method.getSimpleName()).append('(');
+        for(int i = 0; i < consumedTypes.size(); ++i) {
+            if(i > 0) {
+                buf.append(", ");
+            }
+            buf.append("ctx.consume(consumed").append(i).append(')');
+        }
+        buf.append("));\n");
+        if(wrapExceptions) {
+            buf.append("        } catch(org.jboss.grind.PhaseRouterException | RuntimeException e) {\n");
+            buf.append("            throw e;\n");
+            buf.append("        } catch(Exception e) {\n");
+            buf.append("            throw new org.jboss.grind.PhaseRouterException(e);\n");
+            buf.append("        }\n");
+        }
+        buf.append("    }\n");
+        buf.append("}\n");
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        try(Writer writer = file.openWriter()) {
+            writer.write(buf.toString());
+        }
+        if(instantiable) {
+            services.add(qualifiedName);
+        }
+    }
+
+    private void writeServices() {
+        if(services.isEmpty()) {
+            return;
+        }
+        try {
+            // keep the handlers generated by the previous (incremental) compilations
+            readServices(services);
+            final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+            try(Writer writer = file.openWriter()) {
+                for(String service : services) {
+                    writer.write(service);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + SERVICES + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the handlers listed in the services file found in the class output,
+     * if there is one, to the services.
+     */
+    private void readServices(Set<String> services) {
+        final Set<String> existing = new LinkedHashSet<>();
+        try {
+            final FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+            try(BufferedReader reader = new BufferedReader(file.openReader(true))) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    final int comment = line.indexOf('#');
+                    line = (comment < 0 ? line : line.substring(0, comment)).trim();
+                    if(!line.isEmpty()) {
+                        existing.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // there is no services file yet
+            return;
+        }
+        existing.addAll(services);
+        services.clear();
+        services.addAll(existing);
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private static boolean isGeneric(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty();
+    }
+
+    private boolean throwsCheckedExceptions(ExecutableElement method) {
+        final TypeMirror runtimeException = processingEnv.getElementUtils().getTypeElement(RuntimeException.class.getName()).asType();
+        final TypeMirror error = processingEnv.getElementUtils().getTypeElement(Error.class.getName()).asType();
+        final TypeMirror routerException = processingEnv.getElementUtils().getTypeElement("org.jboss.grind.PhaseRouterException").asType();
+        for(TypeMirror thrown : method.getThrownTypes()) {
+            if(!processingEnv.getTypeUtils().isAssignable(thrown, runtimeException)
+                    && !processingEnv.getTypeUtils().isAssignable(thrown, error)
+                    && !processingEnv.getTypeUtils().isAssignable(thrown, routerException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasPublicNoArgConstructor(TypeElement type) {
+        if(type.getModifiers().contains(Modifier.ABSTRACT) || !type.getModifiers().contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        for(ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if(ctor.getParameters().isEmpty() && ctor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Name of the handler generated for the method, which is the simple names
+     * of the enclosing classes and the method joined with '_' followed by
+     * {@link #HANDLER_SUFFIX}.
+     */
+    private static String handlerName(TypeElement type, ExecutableElement method) {
+        final StringBuilder buf = new StringBuilder();
+        Element e = type;
+        while(!(e instanceof PackageElement)) {
+            buf.insert(0, '_').insert(0, e.getSimpleName());
+            e = e.getEnclosingElement();
+        }
+        return buf.append(method.getSimpleName()).append(HANDLER_SUFFIX).toString();
+    }
+
+    private void error(Element element, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, element);
+    }
+}
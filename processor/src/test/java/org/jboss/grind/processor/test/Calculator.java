@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.processor.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.grind.Consumes;
+import org.jboss.grind.Provides;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class Calculator {
+
+    public static class Operands {
+        final List<Integer> values;
+
+        public Operands(Integer... values) {
+            this.values = Arrays.asList(values);
+        }
+    }
+
+    public static class Sum {
+        final int value;
+
+        Sum(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Report {
+        final String text;
+
+        Report(String text) {
+            this.text = text;
+        }
+    }
+
+    private int invocations;
+
+    @Provides
+    public Sum sum(@Consumes Operands operands) {
+        ++invocations;
+        int sum = 0;
+        for(Integer value : operands.values) {
+            sum += value;
+        }
+        return new Sum(sum);
+    }
+
+    @Provides(cost = 1000)
+    static Report report(@Consumes Operands operands, @Consumes Sum sum) throws Exception {
+        return new Report(operands.values + "=" + sum.value);
+    }
+
+    int getInvocations() {
+        return invocations;
+    }
+}
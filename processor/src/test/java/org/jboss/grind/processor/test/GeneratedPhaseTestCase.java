@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.grind.processor.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.jboss.grind.PhaseRouter;
+import org.jboss.grind.PhaseRouterFactory;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class GeneratedPhaseTestCase {
+
+    @Test
+    public void mainTest() throws Exception {
+
+        final Calculator calculator = new Calculator();
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhase(new Calculator_sumPhase(calculator))
+                .addPhase(new Calculator_reportPhase())
+                .build();
+
+        assertEquals("[1, 2, 3]=6", router.consume(Calculator.Report.class, new Calculator.Operands(1, 2, 3)).text);
+        assertEquals(1, calculator.getInvocations());
+    }
+
+    @Test
+    public void testServices() throws Exception {
+
+        final PhaseRouter router = PhaseRouterFactory.getInstance()
+                .addPhases(getClass().getClassLoader())
+                .build();
+
+        assertEquals("[4, 5]=9", router.consume(Calculator.Report.class, new Calculator.Operands(4, 5)).text);
+    }
+
+    @Test
+    public void testIncrementalServices() throws Exception {
+
+        final Path dir = Files.createTempDirectory("grind-processor");
+        try {
+            final Path output = Files.createDirectory(dir.resolve("classes"));
+            compile(output, dir, "First", "public static StringBuilder first(@org.jboss.grind.Consumes String text) { return new StringBuilder(text); }");
+            // the second compilation sees only the new source
+            compile(output, dir, "Second", "public static Integer second(@org.jboss.grind.Consumes StringBuilder text) { return text.length(); }");
+
+            assertEquals(Arrays.asList("incr.First_firstPhase", "incr.Second_secondPhase"),
+                    Files.readAllLines(output.resolve("META-INF/services/org.jboss.grind.PhaseHandler"), StandardCharsets.UTF_8));
+        } finally {
+            try(Stream<Path> files = Files.walk(dir)) {
+                for(Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static void compile(Path output, Path dir, String className, String method) throws IOException {
+        final Path source = dir.resolve(className + ".java");
+        Files.write(source, Arrays.asList("package incr;",
+                "public class " + className + " {",
+                "    @org.jboss.grind.Provides",
+                "    " + method,
+                "}"), StandardCharsets.UTF_8);
+        // surefire runs the tests with a manifest-only jar on the class path
+        final String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+                "-processor", "org.jboss.grind.processor.PhaseProcessor",
+                "-cp", output + File.pathSeparator + classPath,
+                "-d", output.toString(), source.toString()));
+    }
+}